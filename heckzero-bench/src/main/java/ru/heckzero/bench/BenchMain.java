@@ -0,0 +1,32 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+public class BenchMain {                                                                                                                    //run the benchmarks with the allocation profiler and store the results as JSON, any JMH command line option may be passed
+    private static final String RESULTS_DIR = "results";                                                                                    //the results directory
+    private static final String DEF_RESULT_FILE = RESULTS_DIR + File.separatorChar + "jmh-result.json";                                     //default results file, it's not kept in git, a before/after pair of full runs is attached to a review instead
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {                                             //BenchMain [JMH options] [benchmark regexp]
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+        if (cmdOptions.getProfilers().stream().noneMatch(p -> p.getKlass().equals(GCProfiler.class.getName()) || p.getKlass().equals("gc")))
+            options.addProfiler(GCProfiler.class);                                                                                          //allocation rate per operation is the number we are after
+        if (!cmdOptions.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!cmdOptions.getResult().hasValue()) {
+            new File(RESULTS_DIR).mkdirs();
+            options.result(DEF_RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+        return;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.heckzero.bench;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.Chat;
+import ru.heckzero.server.net.WriteCoalescer;
+import ru.heckzero.server.user.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatBench {                                                                                                                    //a chat message fan-out to the room mates, including the encoding of the message for every mate channel
+    @Param({"10", "100", "1000"})
+    private int mates;                                                                                                                      //number of online users in the sender's room, the sender included
+
+    private Chat chat;                                                                                                                      //the sender's chat
+    private final List<EmbeddedChannel> chatChannels = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        List<User> cached = new ArrayList<>(mates);
+        for (int i = 0; i < mates; i++) {
+            User u = Fixtures.newUser(i + 1, "bench" + i);
+            Fixtures.setOnline(u);
+            chatChannels.add(Fixtures.readField(u, "chatChannel"));
+            cached.add(u);
+        }
+        Fixtures.cacheUsers(cached);
+        chat = Fixtures.readField(cached.get(0), "chat");
+        return;
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.cacheUsers(List.of());
+        Fixtures.shutdown();
+        return;
+    }
+
+    @Benchmark
+    public void post() {
+        WriteCoalescer.beginCommand();                                                                                                      //the same way a command thread posts it
+        chat.post("hello everybody in this room");
+        WriteCoalescer.endCommand();
+        chatChannels.forEach(Fixtures::drain);
+        return;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.heckzero.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.AttributeKey;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+import ru.heckzero.server.net.WriteCoalescer;
+import ru.heckzero.server.net.XmlTokenizer;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.utils.CommandProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBench {                                                                                                                 //an inbound message path from the received bytes to the reply written to the channel: tokenizing, dispatching and handling a command
+    @Param({"<N id1=\"100\" id2=\"200\" i1=\"1\"/>", "<GETINFO/>"})
+    private String command;                                                                                                                 //the message the client sends on a game channel
+
+    private final XmlTokenizer tokenizer = new XmlTokenizer();
+    private User user;
+    private EmbeddedChannel gameChannel;
+    private CommandProcessor cmdProc;
+    private ByteBuf msg;
+
+    @Setup
+    public void setup() {
+        Fixtures.initDb();
+        user = Fixtures.newUser(1, "bench");
+        Fixtures.setOnline(user);
+        Fixtures.cacheUsers(List.of(user));
+        gameChannel = Fixtures.readField(user, "gameChannel");
+        cmdProc = (CommandProcessor)gameChannel.attr(AttributeKey.valueOf("cmdProc")).get();
+        msg = Unpooled.directBuffer().writeBytes(command.getBytes(StandardCharsets.UTF_8));
+        return;
+    }
+
+    @Setup(Level.Iteration)
+    public void keepSynced() {                                                                                                              //the user must not reach the database sync interval while the benchmark is running
+        Fixtures.setParam(user, "lastsynctime", Instant.now().getEpochSecond());
+        return;
+    }
+
+    @TearDown
+    public void tearDown() {
+        msg.release();
+        Fixtures.cacheUsers(List.of());
+        Fixtures.shutdown();
+        return;
+    }
+
+    @Benchmark
+    public void process() throws SAXException {
+        msg.readerIndex(0);
+        WriteCoalescer.beginCommand();
+        tokenizer.tokenize(msg, cmdProc);
+        WriteCoalescer.endCommand();
+        Fixtures.drain(gameChannel);
+        return;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.user.UserManager;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptBench {                                                                                                                 //the password hashing done on every <LOGIN/>
+    private final String key = "9D8F6A1B2C3E4F5A6B7C8D9E0F1A2B3C";                                                                          //a 32 chars login key like the server generates
+    private final String password = "secret_password";
+
+    @Benchmark
+    public String encrypt() {return UserManager.encrypt(key, password);}
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.shutdown();
+        return;
+    }
+}
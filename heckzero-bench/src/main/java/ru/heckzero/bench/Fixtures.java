@@ -0,0 +1,194 @@
+package ru.heckzero.bench;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.AttributeKey;
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import ru.heckzero.server.ServerMain;
+import ru.heckzero.server.items.Item;
+import ru.heckzero.server.items.ItemBox;
+import ru.heckzero.server.items.ItemTemplate;
+import ru.heckzero.server.net.NetOutHandler;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.user.UserLevelData;
+import ru.heckzero.server.user.UserManager;
+import ru.heckzero.server.utils.CommandProcessor;
+import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.world.Building;
+import ru.heckzero.server.world.Location;
+
+import java.time.Instant;
+import java.util.List;
+
+public class Fixtures {                                                                                                                     //server objects built by reflection the same way Hibernate builds them, the database backed lookups run on an in-memory H2 database
+    public static final int LOC_X = 0, LOC_Y = 0;                                                                                           //all the fixture users are at this location
+    private static final NetOutHandler netOutHandler = new NetOutHandler();
+    private static boolean dbInitialized = false;
+
+    private Fixtures() { }
+
+    public static synchronized void initDb() {                                                                                              //bootstrap Hibernate on the in-memory database from conf/hibernate.cfg.xml and seed it, done once per a forked JVM
+        if (dbInitialized)
+            return;
+        ServerMain.hzConfiguration = new XMLConfiguration();                                                                                //an empty server configuration, the defaults are used
+        ServerMain.dbInit();
+        try (Session session = ServerMain.sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            for (int lvl = 0; lvl < 20; lvl++) {
+                UserLevelData levelData = new UserLevelData();
+                setParam(levelData, "exp", lvl * 1000);
+                setParam(levelData, "level", lvl);
+                setParam(levelData, "max_hp_man", 100 + lvl * 10);
+                setParam(levelData, "max_hp_woman", 90 + lvl * 10);
+                setParam(levelData, "max_psy_man", 50 + lvl * 5);
+                setParam(levelData, "max_psy_woman", 60 + lvl * 5);
+                session.save(levelData);
+            }
+            Location location = newLocation(LOC_X, LOC_Y, 5);
+            session.save(location);
+            ((List<?>)readField(location, "buildings")).forEach(session::save);
+            tx.commit();
+        }
+        dbInitialized = true;
+        return;
+    }
+
+    public static void shutdown() {                                                                                                         //stop the server scheduled executor (UserManager starts it), otherwise the forked JVM won't exit
+        ServerMain.userTasksScheduledExecutor.shutdownNow();
+        return;
+    }
+
+    public static Location newLocation(int x, int y, int buildings) {                                                                       //a location with the given number of buildings
+        Location location = newInstance(Location.class);
+        setParam(location, "X", x);
+        setParam(location, "Y", y);
+        setParam(location, "name", "Moscow " + x + "/" + y);
+        List<Building> bldList = readField(location, "buildings");
+        for (int z = 1; z <= buildings; z++) {
+            Building bld = newInstance(Building.class);
+            setParam(bld, "Z", z);
+            setParam(bld, "X", 10 + z);
+            setParam(bld, "Y", 5 + z);
+            setParam(bld, "txt", "Building " + z);
+            setParam(bld, "name", 10 + z);
+            setParam(bld, "maxHP", "1000");
+            setParam(bld, "HP", "900");
+            writeField(bld, "location", location);
+            bldList.add(bld);
+        }
+        return location;
+    }
+
+    public static User newUser(int id, String login) {                                                                                      //an offline user at the fixture location with an empty item box
+        User user = newInstance(User.class);
+        writeField(user, "id", id);
+        Object params = readField(user, "params");
+        setParam(params, "login", login);
+        setParam(params, "password", "secret");
+        setParam(params, "X", LOC_X);
+        setParam(params, "Y", LOC_Y);
+        setParam(params, "exp", 5500);
+        setParam(params, "man", 1);
+        setParam(params, "clr", "FF0000");
+        setParam(params, "str", 10);
+        setParam(params, "dex", 10);
+        setParam(params, "id1", "100");
+        setParam(params, "id2", "200");
+        setParam(params, "i1", "1");
+        writeField(user, "itemBox", new ItemBox());
+        writeField(user, "lastsynctime", Instant.now().getEpochSecond());                                                                   //the user has just been synced, so the commands won't sync it with the database
+        return user;
+    }
+
+    public static EmbeddedChannel newChannel(User.ChannelType chType) {                                                                     //a channel having the server outbound encoder, the written messages are kept in the outbound queue
+        EmbeddedChannel ch = new EmbeddedChannel(netOutHandler);
+        ch.attr(AttributeKey.valueOf("chType")).set(chType);
+        ch.attr(AttributeKey.valueOf("chStr")).set("bench");
+        ch.attr(AttributeKey.valueOf("cmdProc")).set(new CommandProcessor(ch));
+        return ch;
+    }
+
+    public static void setOnline(User user) {                                                                                               //bind game and chat channels to the user without the login procedure
+        writeField(user, "gameChannel", newChannel(User.ChannelType.GAME));
+        writeField(user, "chatChannel", newChannel(User.ChannelType.CHAT));
+        return;
+    }
+
+    public static void cacheUsers(List<User> users) {                                                                                       //replace the UserManager users cache content
+        UserManager.clearCache();
+        users.forEach(UserManager::cacheUser);
+        return;
+    }
+
+    public static ItemBox newItemBox(int size) {                                                                                            //an item box of size master items, every 5th of them has 2 included items
+        ItemBox box = new ItemBox();
+        long id = 1_000_000;
+        for (int i = 0; i < size; i++) {
+            Item item = newItem(id++, i);
+            if (i % 5 == 0) {
+                ItemBox included = new ItemBox();
+                for (int j = 0; j < 2; j++) {
+                    Item inc = newItem(id++, j);
+                    inc.setParam(Item.Params.pid, item.getId());
+                    included.addItem(inc);
+                }
+                writeField(item, "included", included);
+            }
+            box.addItem(item);
+        }
+        return box;
+    }
+
+    private static Item newItem(long id, int n) {
+        Item item = new Item((ItemTemplate)null);
+        item.setParam(Item.Params.id, id);
+        item.setParam(Item.Params.name, "w" + (n % 30));
+        item.setParam(Item.Params.txt, "Item " + n);
+        item.setParam(Item.Params.massa, String.valueOf(n % 10 + 1));
+        item.setParam(Item.Params.section, "0");
+        item.setParam(Item.Params.quality, "100");
+        item.setParam(Item.Params.maxquality, "100");
+        item.setParam(Item.Params.type, 1.0 + n % 7);
+        item.setParam(Item.Params.count, String.valueOf(n % 3));
+        return item;
+    }
+
+    public static void drain(EmbeddedChannel ch) {                                                                                          //release the messages written to the channel
+        ch.releaseOutbound();
+        return;
+    }
+
+    public static void setParam(Object obj, String param, Object value) {ParamUtils.setParam(obj, param, value);}
+
+    @SuppressWarnings("unchecked")
+    public static <T> T readField(Object obj, String name) {
+        try {
+            return (T)FieldUtils.readField(obj, name, true);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+
+    private static void writeField(Object obj, String name, Object value) {
+        try {
+            FieldUtils.writeField(obj, name, value, true);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return;
+    }
+
+    private static <T> T newInstance(Class<T> cls) {                                                                                        //call a protected no-arg constructor
+        try {
+            var constructor = cls.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
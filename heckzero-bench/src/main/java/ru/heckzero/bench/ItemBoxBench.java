@@ -0,0 +1,42 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.items.Item;
+import ru.heckzero.server.items.ItemBox;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemBoxBench {                                                                                                                 //item lookups and the item box XML on the typical inventory sizes
+    @Param({"50", "200", "500"})
+    private int size;                                                                                                                       //number of master items in the box
+
+    private ItemBox box;
+    private long lastId, includedId;                                                                                                        //the last master item id and an included item id
+
+    @Setup
+    public void setup() {
+        box = Fixtures.newItemBox(size);
+        ItemBox all = box.getAllItems();
+        lastId = box.itemsIds().get(box.size() - 1);
+        includedId = all.findItems(i -> i.getParamLong(Item.Params.pid) != 0).findFirst().getId();
+        return;
+    }
+
+    @Benchmark
+    public Item findItem() {return box.findItem(lastId);}
+
+    @Benchmark
+    public Item findIncludedItem() {return box.findItem(includedId);}
+
+    @Benchmark
+    public ItemBox findItems() {return box.findItems(i -> i.getParamDouble(Item.Params.type) == 3.0);}
+
+    @Benchmark
+    public String getXml() {return box.getXml();}
+}
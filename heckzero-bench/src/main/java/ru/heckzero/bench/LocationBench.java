@@ -0,0 +1,35 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.world.Location;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationBench {                                                                                                                //the location XML sent on every <GOLOC/>
+    private Location location;
+
+    @Setup
+    public void setup() {
+        Fixtures.initDb();
+        location = Location.getLocation(Fixtures.LOC_X, Fixtures.LOC_Y);
+        return;
+    }
+
+    @Benchmark
+    public String getXml() {return location.getXml();}
+
+    @Benchmark
+    public Location getLocation() {return Location.getLocation(Fixtures.LOC_X, Fixtures.LOC_Y);}                                            //a lookup served by the 2nd level and query caches
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.shutdown();
+        return;
+    }
+}
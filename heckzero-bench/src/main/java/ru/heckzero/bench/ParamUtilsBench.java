@@ -0,0 +1,47 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.items.Item;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.utils.ParamUtils;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParamUtilsBench {                                                                                                              //reflective param access every getParam*()/setParam() of the server goes through
+    private Object userParams;                                                                                                              //the user params embeddable
+    private User user;
+    private Item item;
+    private int counter = 0;
+
+    @Setup
+    public void setup() {
+        user = Fixtures.newUser(1, "bench");
+        userParams = Fixtures.readField(user, "params");
+        item = Fixtures.newItemBox(1).findFirst();
+        return;
+    }
+
+    @Benchmark
+    public int getParamIntField() {return ParamUtils.getParamInt(userParams, "str");}                                                       //a field value
+
+    @Benchmark
+    public int getParamIntConverted() {return ParamUtils.getParamInt(userParams, "id1");}                                                   //a string field converted to int
+
+    @Benchmark
+    public int getParamIntUser() {return user.getParamInt(User.Params.dex);}                                                                //through the User getter, the way the commands do
+
+    @Benchmark
+    public String getParamStrItem() {return item.getParamStr(Item.Params.txt);}
+
+    @Benchmark
+    public boolean setParamInt() {return ParamUtils.setParam(userParams, "str", ++counter & 0xFF);}
+
+    @Benchmark
+    public boolean setParamConverted() {return ParamUtils.setParam(userParams, "dex", Integer.toString(++counter & 0xFF));}                 //a string value converted to the int field
+}
@@ -0,0 +1,56 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.user.UserManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomMatesBench {                                                                                                               //the cached users scan done by every chat message and every room broadcast
+    public static final int ROOMS = 10;                                                                                                     //the online users are spread over this number of rooms at the same location
+
+    @Param({"1000", "10000"})
+    private int users;                                                                                                                      //number of cached online users
+
+    private User user;
+
+    @Setup
+    public void setup() {
+        List<User> cached = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            User u = Fixtures.newUser(i + 1, "bench" + i);
+            Fixtures.setParam(Fixtures.readField(u, "params"), "ROOM", i % ROOMS);
+            Fixtures.setOnline(u);
+            cached.add(u);
+        }
+        Fixtures.cacheUsers(cached);
+        user = cached.get(0);
+        return;
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.cacheUsers(List.of());
+        Fixtures.shutdown();
+        return;
+    }
+
+    @Benchmark
+    public List<User> getRoomMates() {return UserManager.getRoomMates(user);}
+
+    @Benchmark
+    public int getInGameUsers() {                                                                                                           //the live set view is returned as is, so iterate it the way the callers do
+        int n = 0;
+        for (User u : UserManager.getCachedUsers(UserManager.UserType.IN_GAME))
+            n += u.getId();
+        return n;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.heckzero.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.heckzero.server.user.User;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserXmlBench {                                                                                                                 //the user params serialization of <MYPARAM/> and <USERPARAM/>
+    private User user;
+    private MethodHandle getParamsXml;                                                                                                      //User.getParamsXml(EnumSet, boolean) is private
+    private EnumSet<?> getmeParams, getinfoParams;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        Fixtures.initDb();                                                                                                                  //level, predlevel and nextlevel params are looked up in the user level data table
+        user = Fixtures.newUser(1, "bench");
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(User.class, MethodHandles.lookup());
+        getParamsXml = lookup.findVirtual(User.class, "getParamsXml", MethodType.methodType(String.class, EnumSet.class, boolean.class));
+        getmeParams = (EnumSet<?>)lookup.findStaticVarHandle(User.class, "getmeParams", EnumSet.class).get();
+        getinfoParams = (EnumSet<?>)lookup.findStaticVarHandle(User.class, "getinfoParams", EnumSet.class).get();
+        return;
+    }
+
+    @Benchmark
+    public String myParam() throws Throwable {return (String)getParamsXml.invokeExact(user, getmeParams, false);}
+
+    @Benchmark
+    public String userParam() throws Throwable {return (String)getParamsXml.invokeExact(user, getinfoParams, false);}
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.shutdown();
+        return;
+    }
+}
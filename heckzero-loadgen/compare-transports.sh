@@ -0,0 +1,50 @@
+#!/bin/bash
+# Runs the load generator against the server started with every netty transport in turn and prints the messages per second and the p99 latency of each one.
+# Build the server first (mvn package in the server directory), the server conf (the database and the bot accounts) must be ready for a load generator run.
+# Usage: compare-transports.sh [loadgen config file] [transport ...], the default transports are nio epoll io_uring
+# SERVER_JAR and SERVER_CONF override the server jar and the server conf directory.
+LG_CONF=$(readlink -f ${1:-${0%${0##*/}}conf/loadgen.xml});                                   # the paths given are relative to the current directory
+SERVER_JAR=$(readlink -f ${SERVER_JAR:-${0%${0##*/}}../HeckZero-6.4.4.jar});
+SERVER_CONF=$(readlink -f ${SERVER_CONF:-${0%${0##*/}}../conf});
+shift;
+cd ${0%${0##*/}}.
+
+. ../setenv.sh
+
+JAVA="${JAVA_HOME}/bin/java";
+TRANSPORTS=${@:-nio epoll io_uring};
+RESULTS=$(mktemp -d);
+
+mvn -q compile || exit 1;
+echo "results and logs are in $RESULTS";
+
+for T in $TRANSPORTS; do
+    RUN_DIR="$RESULTS/$T";
+    mkdir -p $RUN_DIR;
+    cp -r $SERVER_CONF $RUN_DIR/conf;
+    sed -i "s|<Transport>.*</Transport>|<Transport>$T</Transport>|" $RUN_DIR/conf/heckzero.xml;
+
+    (cd $RUN_DIR && exec ${JAVA} -Dlog4j.configurationFile=conf/log4j2.xml -Djava.net.preferIPv4Stack=true -cp $SERVER_JAR ru.heckzero.server.ServerMain > server.log 2>&1) &
+    SERVER_PID=$!;
+    for i in $(seq 60); do
+        grep -q "server has been started" $RUN_DIR/server.log && break;
+        kill -0 $SERVER_PID 2>/dev/null || break;
+        sleep 1;
+    done
+    if ! kill -0 $SERVER_PID 2>/dev/null; then
+        echo "$T: the server has failed to start, see $RUN_DIR/server.log";
+        continue;
+    fi
+    grep -o "[A-Za-z_]* transport" $RUN_DIR/server.log | head -1 | sed "s|^|$T: the server is running the |";
+
+    mvn -q exec:java -Dexec.args="$LG_CONF" > $RUN_DIR/loadgen.log 2>&1;
+    kill -TERM $SERVER_PID;
+    wait $SERVER_PID;
+done
+
+echo;
+printf "%-10s %-10s %12s %10s %10s\n" "transport" "command" "messages/s" "p50 ms" "p99 ms";
+for T in $TRANSPORTS; do                                                                       # the final report of the run: command sent sent/s timeouts p50 p90 p99 p99.9 max
+    sed 's/\x1b\[[0-9;]*m//g' $RESULTS/$T/loadgen.log | sed -n '/final report/,$p' | sed 's/^.* - //' | \
+        awk -v t=$T '$2 ~ /^[0-9]+$/ && NF >= 9 {printf "%-10s %-10s %12.1f %10.2f %10.2f\n", t, $1, $3, $5, $7; total += $3} END {printf "%-10s %-10s %12.1f\n", t, "total", total}';
+done
@@ -0,0 +1,301 @@
+package ru.heckzero.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.loadgen.Scenario.ChannelKind;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Bot {                                                                                                                          //a headless client, it logs in the way the original client does and plays a scenario, all its work is done on the event loop of its game channel
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int MAX_PACKET_SIZE = 1024 * 1024;                                                                                 //the server replies (e.g. <MYPARAM>) might be large
+
+    private enum State {CONNECTING, HANDSHAKE, PLAYING, RECONNECTING, STOPPED}
+
+    private final LoadGen gen;
+    private final String login;
+    private final SplittableRandom rnd;                                                                                                     //the bot own random, seeded from the run seed, so the workload is reproducible
+    private final Scenario scenario;
+    private volatile State state = State.CONNECTING;
+    private volatile Channel game, chat;
+    private String ses;                                                                                                                     //the chat authorization key got in the <OK> reply to <LOGIN>
+    private int stepIdx = 0;                                                                                                                //the next scenario step
+    private Scenario.Step step;                                                                                                             //the current scenario step
+
+    private String pendingCommand;                                                                                                          //a command waiting for the reply, only one command is outstanding at a time
+    private ChannelKind pendingChannel;
+    private long pendingSince;
+    private ScheduledFuture<?> pendingTimeout, keepAlive, nextStepTask;
+    private long reconnectSince = 0;                                                                                                        //a reconnect wave has dropped the bot connections at this time, the wave is done for the bot when the server has accepted the new connection
+
+    public Bot(LoadGen gen, String login, SplittableRandom rnd) {
+        this.gen = gen;
+        this.login = login;
+        this.rnd = rnd;
+        this.scenario = gen.getScenarios().isEmpty() ? null : Scenario.pick(gen.getScenarios(), rnd);
+        return;
+    }
+
+    public String getLogin() {return login;}
+
+    public void start() {                                                                                                                   //connect to the game server, the server will send a <KEY> on connect
+        if (state == State.STOPPED)
+            return;
+        state = State.CONNECTING;
+        long connectStart = System.nanoTime();
+        gen.getStats().sent("CONNECT");
+        gen.getBootstrap().clone().handler(initializer(ChannelKind.GAME)).connect(gen.getHost(), gen.getPort()).addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess()) {
+                gen.getStats().error();
+                logger.warn("bot %s can't connect to %s:%d: %s", login, gen.getHost(), gen.getPort(), f.cause().getMessage());
+                if ((gen.isConnectMode() || gen.isReconnectMode()) && gen.isRunning())                                                      //a connection storm or a reconnect wave, the connection may be refused when the accept queue overflows, try again
+                    f.channel().eventLoop().schedule(this::start, 1, TimeUnit.SECONDS);
+                return;
+            }
+            game = f.channel();
+            gen.getStats().replied("CONNECT", System.nanoTime() - connectStart);
+            gen.getStats().sent("KEY");
+            expect(ChannelKind.GAME, "KEY", connectStart);                                                                                  //the <KEY> is the reply to the connect
+        });
+        return;
+    }
+
+    public void stop() {                                                                                                                    //stop playing and close the bot channels, may be called from any thread
+        state = State.STOPPED;
+        cancel(pendingTimeout);
+        cancel(keepAlive);
+        if (chat != null)
+            chat.close();
+        if (game != null)
+            game.close();
+        return;
+    }
+
+    public void reconnect() {                                                                                                               //drop the connections and connect again at once, the way the clients do after a server restart, may be called from any thread
+        Channel ch = game;
+        if (ch == null || state == State.STOPPED)
+            return;
+        ch.eventLoop().execute(() -> {
+            if (state == State.STOPPED || state == State.RECONNECTING)
+                return;
+            state = State.RECONNECTING;
+            cancel(pendingTimeout);
+            cancel(keepAlive);
+            cancel(nextStepTask);
+            pendingCommand = null;
+            Channel oldChat = chat;
+            game = chat = null;                                                                                                             //the close events of the old channels will be ignored
+            if (oldChat != null)
+                oldChat.close();
+            gen.getStats().sent("RECONNECT");
+            reconnectSince = System.nanoTime();
+            ch.close().addListener(f -> start());
+        });
+        return;
+    }
+
+    void received(ChannelKind kind, String msg) {                                                                                           //a message from the server has been received on the bot channel
+        if (state == State.STOPPED)
+            return;
+        if (pendingCommand == null || pendingChannel != kind) {                                                                             //nothing is expected on this channel, a message pushed by the server
+            gen.getStats().unsolicited();
+            return;
+        }
+        String command = pendingCommand;
+        gen.getStats().replied(command, System.nanoTime() - pendingSince);
+        pendingCommand = null;
+        cancel(pendingTimeout);
+
+        switch (command) {
+            case "KEY" -> {
+                if (reconnectSince != 0) {                                                                                                  //the server has accepted the connection of a reconnect wave
+                    gen.getStats().replied("RECONNECT", System.nanoTime() - reconnectSince);
+                    gen.getStats().accepted();
+                    reconnectSince = 0;
+                }
+                if (gen.isConnectMode()) {                                                                                                  //a connection storm, the connection is done, the next one will be opened when this one has been closed
+                    game.close();
+                    return;
+                }
+                state = State.HANDSHAKE;
+                String key = attr(msg, "s");
+                request(ChannelKind.GAME, "LOGIN", String.format("<LOGIN l=\"%s\" p=\"%s\"/>", login, ClientCrypt.encrypt(key, gen.getPassword())));
+            }
+            case "LOGIN" -> {
+                if (!msg.startsWith("<OK")) {                                                                                               //<ERROR code=""/>
+                    gen.getStats().error();
+                    logger.warn("bot %s can't log in: %s", login, msg);
+                    stop();
+                    return;
+                }
+                ses = attr(msg, "ses");                                                                                                     //the chat authorization key
+                request(ChannelKind.GAME, "GETME", "<GETME/>");
+            }
+            case "GETME" -> {
+                if (gen.isChatEnabled())
+                    request(ChannelKind.GAME, "CHAT", "<CHAT/>");                                                                           //ask for the chat server host
+                else
+                    play();
+            }
+            case "CHAT" -> connectChat(StringUtils.defaultIfBlank(gen.getChatHost(), attr(msg, "server")));
+            case "CHATLOGIN" -> play();
+            default -> next(step.getThink());                                                                                               //a scenario step has been replied
+        }
+        return;
+    }
+
+    void disconnected(ChannelKind kind, Channel ch) {
+        if (state == State.STOPPED || (ch != game && ch != chat))                                                                           //the bot has been stopped or it's an old channel closed by a reconnect
+            return;
+        if (gen.isConnectMode()) {                                                                                                          //a connection storm goes on until the end of the run
+            cancel(pendingTimeout);
+            pendingCommand = null;
+            if (gen.isRunning())
+                start();
+            return;
+        }
+        gen.getStats().error();
+        logger.warn("bot %s %s channel has been closed by the server", login, kind);
+        stop();
+        return;
+    }
+
+    private void connectChat(String chatHost) {                                                                                             //open a chat channel on the same event loop as the game one and authorize it with the ses key got on login
+        long connectStart = System.nanoTime();
+        gen.getStats().sent("CHATCONNECT");
+        gen.getBootstrap().clone(game.eventLoop()).handler(initializer(ChannelKind.CHAT)).connect(chatHost, gen.getChatPort()).addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess()) {
+                gen.getStats().error();
+                logger.warn("bot %s can't connect to the chat server %s:%d: %s", login, chatHost, gen.getChatPort(), f.cause().getMessage());
+                stop();
+                return;
+            }
+            chat = f.channel();
+            gen.getStats().replied("CHATCONNECT", System.nanoTime() - connectStart);
+            request(ChannelKind.CHAT, "CHATLOGIN", String.format("<CHAT l=\"%s\" ses=\"%s\"/>", login, ses));
+        });
+        return;
+    }
+
+    private void play() {                                                                                                                   //the handshake is over, start the keepalives and the scenario
+        if (scenario == null) {
+            logger.warn("bot %s has no scenario to play", login);
+            return;
+        }
+        state = State.PLAYING;
+        long interval = gen.getKeepAlive();
+        keepAlive = game.eventLoop().scheduleAtFixedRate(() -> {
+            send(ChannelKind.GAME, "<N/>");
+            send(ChannelKind.CHAT, "<N/>");
+            gen.getStats().sent("N");
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        next(0);
+        return;
+    }
+
+    private void next(long delay) {                                                                                                         //schedule the next scenario step
+        if (state == State.PLAYING)
+            nextStepTask = game.eventLoop().schedule(this::nextStep, delay, TimeUnit.MILLISECONDS);
+        return;
+    }
+
+    private void nextStep() {
+        if (state != State.PLAYING)
+            return;
+        step = scenario.getSteps().get(stepIdx++ % scenario.getSteps().size());
+        if (step.getChannel() == ChannelKind.CHAT && chat == null) {                                                                        //the chat is off, skip the chat steps
+            next(step.getThink());
+            return;
+        }
+        String msg = step.render(login, gen.getLogin(rnd.nextInt(gen.getBots())), rnd);
+        if (step.isReply()) {
+            request(step.getChannel(), step.getCommand(), msg);
+            return;
+        }
+        send(step.getChannel(), msg);
+        gen.getStats().sent(step.getCommand());
+        next(step.getThink());
+        return;
+    }
+
+    private void request(ChannelKind kind, String command, String msg) {                                                                    //send a command and wait for the reply
+        gen.getStats().sent(command);
+        expect(kind, command, System.nanoTime());
+        send(kind, msg);
+        return;
+    }
+
+    private void expect(ChannelKind kind, String command, long since) {
+        pendingCommand = command;
+        pendingChannel = kind;
+        pendingSince = since;
+        pendingTimeout = game.eventLoop().schedule(() -> timedOut(command), gen.getReplyTimeout(), TimeUnit.MILLISECONDS);
+        return;
+    }
+
+    private void timedOut(String command) {
+        if (state == State.STOPPED || !command.equals(pendingCommand))
+            return;
+        pendingCommand = null;
+        gen.getStats().timedOut(command);
+        if (state == State.PLAYING) {                                                                                                       //a lost reply of a scenario step, just go on
+            next(step.getThink());
+            return;
+        }
+        logger.warn("bot %s got no reply to %s in %d ms", login, command, gen.getReplyTimeout());
+        if (gen.isConnectMode())
+            game.close();
+        else
+            stop();
+        return;
+    }
+
+    private void send(ChannelKind kind, String msg) {                                                                                       //send a 0x00 terminated UTF-8 message the way a Flash XML socket does
+        Channel ch = kind == ChannelKind.GAME ? game : chat;
+        if (ch == null)
+            return;
+        ByteBuf buf = ch.alloc().buffer(ByteBufUtil.utf8Bytes(msg) + 1);
+        ByteBufUtil.writeUtf8(buf, msg);
+        buf.writeZero(1);
+        ch.writeAndFlush(buf, ch.voidPromise());
+        return;
+    }
+
+    private ChannelInitializer<SocketChannel> initializer(ChannelKind kind) {
+        return new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new DelimiterBasedFrameDecoder(MAX_PACKET_SIZE, Delimiters.nulDelimiter()));
+                ch.pipeline().addLast(new StringDecoder(StandardCharsets.UTF_8));
+                ch.pipeline().addLast(new BotHandler(Bot.this, kind));
+                return;
+            }
+        };
+    }
+
+    private static String attr(String msg, String name) {                                                                                   //get an attribute value from a server message, the server may put spaces around '='
+        Matcher m = Pattern.compile("\\b" + name + "\\s*=\\s*\"([^\"]*)\"").matcher(msg);
+        return m.find() ? m.group(1) : StringUtils.EMPTY;
+    }
+
+    private static void cancel(ScheduledFuture<?> f) {
+        if (f != null)
+            f.cancel(false);
+        return;
+    }
+}
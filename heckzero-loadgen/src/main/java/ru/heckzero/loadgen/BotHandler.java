@@ -0,0 +1,38 @@
+package ru.heckzero.loadgen;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class BotHandler extends SimpleChannelInboundHandler<String> {                                                                       //passes the messages received on a bot channel to the bot
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final Bot bot;
+    private final Scenario.ChannelKind kind;                                                                                                //a game or chat channel of the bot
+
+    public BotHandler(Bot bot, Scenario.ChannelKind kind) {
+        this.bot = bot;
+        this.kind = kind;
+        return;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
+        bot.received(kind, msg);
+        return;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        bot.disconnected(kind, ctx.channel());
+        return;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        logger.warn("bot %s %s channel exception: %s:%s", bot.getLogin(), kind, cause.getClass().getSimpleName(), cause.getMessage());
+        ctx.close();
+        return;
+    }
+}
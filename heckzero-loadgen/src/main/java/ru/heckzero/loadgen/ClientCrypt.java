@@ -0,0 +1,27 @@
+package ru.heckzero.loadgen;
+
+import io.netty.buffer.ByteBufUtil;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ClientCrypt {                                                                                                                  //the password hashing the original client does on <LOGIN>, must be kept in line with UserManager.encrypt() of the server
+    private static final int [] shuffle_indexes = {35, 6, 4, 25, 7, 8, 36, 16, 20, 37, 12, 31, 39, 38, 21, 5, 33, 15, 9, 13, 29, 23, 32, 22, 2, 27, 1, 10, 30, 24, 0, 19, 26, 14, 18, 34, 17, 28, 11, 3};
+
+    private ClientCrypt() { }
+
+    public static String encrypt(String key, String msg) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");                                                                        //get a SHA-1 encryptor
+            String passKey = msg.charAt(0) + key.substring(0, 10) + msg.substring(1) + key.substring(10);                                   //compose the string to be hashed
+            String passKey_SHA1 = ByteBufUtil.hexDump(sha1.digest(passKey.getBytes(StandardCharsets.UTF_8))).toUpperCase();                 //cipher the string with SHA-1
+            return IntStream.range(0, 40).mapToObj(i -> passKey_SHA1.charAt(ArrayUtils.indexOf(shuffle_indexes, i))).map(String::valueOf).collect(Collectors.joining());
+        } catch (NoSuchAlgorithmException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("can't encrypt a password: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.heckzero.loadgen;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGen {                                                                                                                      //a swarm of headless bots playing scripted scenarios against a server, it reports the throughput and the latency percentiles per command
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final String CONF_DIR = "conf";                                                                                          //configuration directory
+    private static final String CONF_FILE = "loadgen.xml";                                                                                  //default load generator configuration file
+    private static final String DEF_HOST = "127.0.0.1";                                                                                     //default server host
+    private static final Integer DEF_PORT = 5190;                                                                                           //default server port
+    private static final String DEF_MODE = "play";                                                                                          //play - log in and play the scenarios, connect - a connection storm, reconnect - play with all the bots reconnecting at once periodically
+    private static final Integer DEF_BOTS = 100;                                                                                            //default number of bots
+    private static final Integer DEF_RAMP_UP = 10;                                                                                          //seconds to start all the bots within
+    private static final Integer DEF_DURATION = 60;                                                                                         //seconds to run after the ramp up
+    private static final Integer DEF_REPORT_INTERVAL = 5;                                                                                   //seconds between the interim reports
+    private static final Integer DEF_REPLY_TIMEOUT = 5000;                                                                                  //milliseconds to wait for a reply
+    private static final Integer DEF_RECONNECT_INTERVAL = 20;                                                                               //seconds between the reconnect waves
+    private static final Integer DEF_KEEP_ALIVE = 3000;                                                                                     //milliseconds between <N/> keepalives
+    private static final Long DEF_SEED = 1L;                                                                                                //random seed of the workload
+
+    private final static File log4jCfg = new File(System.getProperty("user.dir") + File.separatorChar + CONF_DIR + File.separatorChar + "log4j2.xml");
+
+    private static final String OS = System.getProperty("os.name").toLowerCase();                                                           //OS type we are running on
+    private static final boolean IS_UNIX = (OS.contains("nix") || OS.contains("nux"));                                                      //if the running OS is Linux/Unix family
+
+    private XMLConfiguration conf;
+    private Bootstrap bootstrap;
+    private final Stats stats = new Stats();
+    private List<Scenario> scenarios = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private String host, chatHost, loginFormat, password;
+    private int port, chatPort, bots, firstIndex, replyTimeout, keepAlive;
+    private boolean connectMode, reconnectMode, chatEnabled;
+
+    static {
+        ((LoggerContext) LogManager.getContext(false)).setConfigLocation(log4jCfg.toURI());                                                 //set and read log4j configuration file name
+    }
+
+    public static void main(String[] args) {                                                                                                //LoadGen [config file]
+        Locale.setDefault(Locale.US);
+        File confFile = args.length > 0 ? new File(args[0]) : new File(System.getProperty("user.dir") + File.separatorChar + CONF_DIR + File.separatorChar + CONF_FILE);
+        new LoadGen().run(confFile);
+        return;
+    }
+
+    public void run(File confFile) {
+        if (!readConfig(confFile))
+            return;
+        EventLoopGroup group = IS_UNIX ? new EpollEventLoopGroup(conf.getInt("Run.Threads", 0)) : new NioEventLoopGroup(conf.getInt("Run.Threads", 0));
+        bootstrap = new Bootstrap().group(group).channel(IS_UNIX ? EpollSocketChannel.class : NioSocketChannel.class).
+                option(ChannelOption.TCP_NODELAY, true).option(ChannelOption.CONNECT_TIMEOUT_MILLIS, replyTimeout);
+
+        int rampUp = conf.getInt("Run.RampUp", DEF_RAMP_UP);
+        int duration = conf.getInt("Run.Duration", DEF_DURATION);
+        int reportInterval = conf.getInt("Run.ReportInterval", DEF_REPORT_INTERVAL);
+        logger.info("starting %d bots in %s mode against %s:%d, ramp up %d s, duration %d s, scenarios: %s", bots, conf.getString("Run.Mode", DEF_MODE), host, port, rampUp, duration, scenarios);
+
+        SplittableRandom seedRnd = new SplittableRandom(conf.getLong("Run.Seed", DEF_SEED));                                                //every bot gets its own random split from the seed one
+        List<Bot> swarm = new ArrayList<>(bots);
+        for (int i = 0; i < bots; i++) {
+            Bot bot = new Bot(this, getLogin(i), seedRnd.split());
+            swarm.add(bot);
+            group.schedule(bot::start, rampUp * 1000L * i / bots, TimeUnit.MILLISECONDS);                                                   //start the bots evenly within the ramp up period
+        }
+        ScheduledFuture<?> reporter = group.scheduleAtFixedRate(() -> stats.report(false), reportInterval, reportInterval, TimeUnit.SECONDS);
+
+        try {
+            TimeUnit.SECONDS.sleep(rampUp);
+            if (reconnectMode)
+                reconnectWaves(swarm, duration);
+            else
+                TimeUnit.SECONDS.sleep(duration);
+        } catch (InterruptedException e) {
+            logger.warn("the run has been interrupted");
+        }
+        running = false;
+        reporter.cancel(false);
+        swarm.forEach(Bot::stop);
+        stats.report(true);
+        group.shutdownGracefully().syncUninterruptibly();
+        return;
+    }
+
+    private void reconnectWaves(List<Bot> swarm, int duration) throws InterruptedException {                                                //drop all the bot connections at once every ReconnectInterval seconds and measure how fast the server accepts them back
+        int interval = conf.getInt("Run.ReconnectInterval", DEF_RECONNECT_INTERVAL);
+        int waves = Math.max(1, duration / interval);
+        for (int wave = 1; wave <= waves; wave++) {
+            TimeUnit.SECONDS.sleep(interval);
+            stats.startWave();
+            long waveStart = System.nanoTime();
+            swarm.forEach(Bot::reconnect);
+            TimeUnit.MILLISECONDS.sleep(replyTimeout);                                                                                      //let the wave settle, the bots which aren't accepted within the reply timeout are counted as failed
+            stats.reportWave(wave, bots, waveStart);
+        }
+        return;
+    }
+
+    private boolean readConfig(File confFile) {
+        try {
+            conf = new Configurations().xml(confFile);
+        } catch (ConfigurationException e) {
+            logger.error("can't read the configuration file %s: %s", confFile, e.getMessage());
+            return false;
+        }
+        host = conf.getString("Target.Host", DEF_HOST);
+        port = conf.getInt("Target.Port", DEF_PORT);
+        chatHost = conf.getString("Target.ChatHost", "");
+        chatPort = conf.getInt("Target.ChatPort", port);
+        connectMode = conf.getString("Run.Mode", DEF_MODE).equals("connect");
+        reconnectMode = conf.getString("Run.Mode", DEF_MODE).equals("reconnect");
+        bots = conf.getInt("Run.Bots", DEF_BOTS);
+        replyTimeout = conf.getInt("Run.ReplyTimeout", DEF_REPLY_TIMEOUT);
+        keepAlive = conf.getInt("Run.KeepAlive", DEF_KEEP_ALIVE);
+        loginFormat = conf.getString("Users.Login", "bot%d");
+        firstIndex = conf.getInt("Users.FirstIndex", 1);
+        password = conf.getString("Users.Password", "");
+        chatEnabled = conf.getBoolean("Users.Chat", true);
+        scenarios = conf.configurationsAt("Scenarios.Scenario").stream().map(Scenario::new).filter(s -> !s.getSteps().isEmpty()).toList();
+        if (!connectMode && scenarios.isEmpty()) {
+            logger.error("no scenarios are defined in %s", confFile);
+            return false;
+        }
+        return true;
+    }
+
+    public Bootstrap getBootstrap() {return bootstrap;}
+    public Stats getStats() {return stats;}
+    public List<Scenario> getScenarios() {return scenarios;}
+    public boolean isRunning() {return running;}
+    public boolean isConnectMode() {return connectMode;}
+    public boolean isReconnectMode() {return reconnectMode;}
+    public boolean isChatEnabled() {return chatEnabled;}
+    public String getHost() {return host;}
+    public int getPort() {return port;}
+    public String getChatHost() {return chatHost;}
+    public int getChatPort() {return chatPort;}
+    public String getPassword() {return password;}
+    public int getBots() {return bots;}
+    public int getReplyTimeout() {return replyTimeout;}
+    public int getKeepAlive() {return keepAlive;}
+    public String getLogin(int botIdx) {return String.format(loginFormat, firstIndex + botIdx);}
+}
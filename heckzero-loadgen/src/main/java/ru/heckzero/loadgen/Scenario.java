@@ -0,0 +1,80 @@
+package ru.heckzero.loadgen;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Scenario {                                                                                                                     //a named list of steps a bot plays in a loop
+    private static final Pattern SUBST_PATTERN = Pattern.compile("\\{(rand:(\\d+)-(\\d+)|login|peer)}");                                    //{rand:A-B}, {login}, {peer} substitutions in a step command
+
+    public enum ChannelKind {GAME, CHAT}
+
+    public static class Step {
+        private final ChannelKind channel;                                                                                                  //a channel the command is sent to
+        private final String template;                                                                                                      //the command XML with substitutions
+        private final String command;                                                                                                       //the command element name, statistics are collected by it
+        private final boolean reply;                                                                                                        //the server is expected to reply the command
+        private final int think;                                                                                                            //a pause (ms) after the step before the next one
+
+        Step(ChannelKind channel, String template, boolean reply, int think) {
+            this.channel = channel;
+            this.template = template.trim();
+            this.command = this.template.replaceFirst("^<\\s*([^\\s/>]+).*$", "$1");
+            this.reply = reply;
+            this.think = think;
+            return;
+        }
+
+        public ChannelKind getChannel() {return channel;}
+        public String getCommand() {return command;}
+        public boolean isReply() {return reply;}
+        public int getThink() {return think;}
+
+        public String render(String login, String peer, SplittableRandom rnd) {                                                             //make a command to send by substituting the template placeholders
+            Matcher m = SUBST_PATTERN.matcher(template);
+            StringBuilder sb = new StringBuilder(template.length() + 16);
+            while (m.find()) {
+                String value = switch (m.group(1)) {
+                    case "login" -> login;
+                    case "peer" -> peer;
+                    default -> String.valueOf(rnd.nextInt(Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)) + 1));
+                };
+                m.appendReplacement(sb, Matcher.quoteReplacement(value));
+            }
+            m.appendTail(sb);
+            return sb.toString();
+        }
+    }
+
+    private final String name;
+    private final int weight;                                                                                                               //relative share of the bots playing this scenario
+    private final List<Step> steps;
+
+    public Scenario(HierarchicalConfiguration<ImmutableNode> conf) {                                                                        //build a scenario from a <Scenario> configuration node
+        this.name = conf.getString("[@name]", "unnamed");
+        this.weight = conf.getInt("[@weight]", 1);
+        this.steps = conf.configurationsAt("Step").stream().map(s -> new Step(ChannelKind.valueOf(s.getString("[@channel]", "game").toUpperCase()), s.getString(""), s.getBoolean("[@reply]", true), s.getInt("[@think]", 1000))).toList();
+        return;
+    }
+
+    public String getName() {return name;}
+    public int getWeight() {return weight;}
+    public List<Step> getSteps() {return steps;}
+
+    public static Scenario pick(List<Scenario> scenarios, SplittableRandom rnd) {                                                           //pick a scenario according to the scenario weights
+        int total = scenarios.stream().mapToInt(Scenario::getWeight).sum();
+        int r = rnd.nextInt(total);
+        for (Scenario s : scenarios) {
+            if ((r -= s.getWeight()) < 0)
+                return s;
+        }
+        return scenarios.get(scenarios.size() - 1);
+    }
+
+    @Override
+    public String toString() {return String.format("%s(weight=%d, steps=%d)", name, weight, steps.size());}
+}
@@ -0,0 +1,100 @@
+package ru.heckzero.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Stats {                                                                                                                        //per command throughput and latency statistics shared by all the bots
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private static class CommandStats {
+        private final Recorder recorder = new Recorder(3);                                                                                  //reply latencies (microseconds), recorded concurrently by the event loop threads
+        private final Histogram total = new Histogram(3);                                                                                   //all the latencies since the start, accumulated by the reporter only
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private long sentReported = 0;                                                                                                      //number of sent commands at the previous report
+    }
+
+    private final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    private final LongAdder unsolicited = new LongAdder();                                                                                  //messages received while no reply was expected (pushes from the server)
+    private final LongAdder errors = new LongAdder();                                                                                       //login errors and unexpected disconnects
+    private final LongAdder waveAccepted = new LongAdder();                                                                                 //connections accepted in the current reconnect wave
+    private final AtomicLong waveLastAccept = new AtomicLong();                                                                             //time of the last accepted connection of the wave
+    private final long startNanos = System.nanoTime();
+    private long lastReportNanos = startNanos;
+
+    private CommandStats of(String command) {return commands.computeIfAbsent(command, k -> new CommandStats());}
+
+    public void sent(String command) {
+        of(command).sent.increment();
+        return;
+    }
+
+    public void replied(String command, long latencyNanos) {
+        of(command).recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        return;
+    }
+
+    public void timedOut(String command) {
+        of(command).timeouts.increment();
+        return;
+    }
+
+    public void accepted() {
+        waveAccepted.increment();
+        waveLastAccept.accumulateAndGet(System.nanoTime(), Math::max);
+        return;
+    }
+
+    public void startWave() {
+        waveAccepted.reset();
+        waveLastAccept.set(0L);
+        return;
+    }
+
+    public void reportWave(int wave, int bots, long waveStartNanos) {                                                                       //log how fast the server has accepted the connections of a reconnect wave
+        long accepted = waveAccepted.sum();
+        double seconds = accepted == 0 ? 0.0 : (waveLastAccept.get() - waveStartNanos) / 1e9;
+        logger.info("reconnect wave %d: %d of %d bots have been accepted in %.0f ms, %.0f accepts/s, errors so far: %d", wave, accepted, bots, seconds * 1000, seconds > 0 ? accepted / seconds : 0.0, errors.sum());
+        return;
+    }
+
+    public void unsolicited() {
+        unsolicited.increment();
+        return;
+    }
+
+    public void error() {
+        errors.increment();
+        return;
+    }
+
+    public synchronized void report(boolean last) {                                                                                         //log the interval (or the total one if it's the last report) throughput and latency percentiles
+        long now = System.nanoTime();
+        double seconds = (now - (last ? startNanos : lastReportNanos)) / 1e9;
+        lastReportNanos = now;
+
+        logger.info("%s report for %.1f s, errors: %d, unsolicited messages: %d", last ? "final" : "interval", seconds, errors.sum(), unsolicited.sum());
+        logger.info("%-10s %10s %10s %10s %9s %9s %9s %9s %9s", "command", "sent", "sent/s", "timeouts", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        new TreeMap<>(commands).forEach((command, cs) -> {
+            Histogram interval = cs.recorder.getIntervalHistogram();
+            cs.total.add(interval);
+            Histogram h = last ? cs.total : interval;
+            long sent = cs.sent.sum();
+            long sentInInterval = last ? sent : sent - cs.sentReported;
+            cs.sentReported = sent;
+            logger.info("%-10s %10d %10.1f %10d %9.2f %9.2f %9.2f %9.2f %9.2f", command, sentInInterval, sentInInterval / seconds, cs.timeouts.sum(), ms(h, 50.0), ms(h, 90.0), ms(h, 99.0), ms(h, 99.9), h.getMaxValue() / 1000.0);
+        });
+        return;
+    }
+
+    private static double ms(Histogram h, double percentile) {return h.getTotalCount() == 0 ? 0.0 : h.getValueAtPercentile(percentile) / 1000.0;}
+}
@@ -64,13 +64,13 @@ public class Chat {
 	}
 
 	public void removeMe() {																									 		    //send every room-mate that user has left the room
-		UserManager.getRoomMates(this.user).forEach(dude -> dude.sendMsgChat(String.format("<D t=\"%s\"/> ", user.getLogin())));
+		UserManager.getRoomMates(this.user).forEach(dude -> dude.sendPresenceChat(String.format("<D t=\"%s\"/> ", user.getLogin())));
 		return;
 	}
 
 	public void updateMyStatus() {					 																			   			//send every room-mate the info about the user that has arrived, or if his status has been changed
 		if (user.isInGame())																												//battleId, group, status, clan, login, level, rank
-			UserManager.getRoomMates(this.user).forEach(dude -> dude.sendMsgChat(String.format("<A t=\"%s/%s/%d/%s/%s/%d/%d\"/> ", user.getParamStr(User.Params.battleid), user.getParamStr(User.Params.group), chatStatus(dude, user), user.getParamStr(User.Params.clan), user.getLogin(), user.getParamInt(User.Params.level), user.getParamInt(User.Params.rank_points))));
+			UserManager.getRoomMates(this.user).forEach(dude -> dude.sendPresenceChat(String.format("<A t=\"%s/%s/%d/%s/%s/%d/%d\"/> ", user.getParamStr(User.Params.battleid), user.getParamStr(User.Params.group), chatStatus(dude, user), user.getParamStr(User.Params.clan), user.getLogin(), user.getParamInt(User.Params.level), user.getParamInt(User.Params.rank_points))));
 		else
 			removeMe();
 		return;
@@ -136,7 +136,7 @@ public class Chat {
 			}
 		
 		if (toClan) {																														//message be sent to all online clan members
-			UserManager.getClanMatesOnline(user).forEach(u -> u.sendMsgChat(resultMsg));
+			UserManager.getClanMatesOnline(user).forEach(u -> u.sendMsgChatLossy(resultMsg));
 			return;
 		}
 		
@@ -153,7 +153,7 @@ public class Chat {
 			}
 			return;
 		}
-		UserManager.getRoomMates(user).forEach(u -> u.sendMsgChat(resultMsg));
+		UserManager.getRoomMates(user).forEach(u -> u.sendMsgChatLossy(resultMsg));
 		return;
 	} 
 
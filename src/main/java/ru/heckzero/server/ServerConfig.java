@@ -0,0 +1,34 @@
+package ru.heckzero.server;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.List;
+import java.util.StringJoiner;
+
+public record ServerConfig(int maxSocketIdleTime, int maxUserIdleTime, int encryptionKeySize, long usersCacheTimeout, String listReply, String chatReply) { //an immutable snapshot of the settings used on the hot paths, XMLConfiguration getters take locks, so it's read once per the config file change
+    private static volatile ServerConfig current = of(new XMLConfiguration());                                                              //the defaults until the server config has been read
+
+    public static ServerConfig get() {return current;}
+
+    public static void set(ServerConfig config) {                                                                                           //swap the snapshot, the tasks in progress keep using the one they have got
+        current = config;
+        return;
+    }
+
+    public static ServerConfig of(XMLConfiguration conf) {                                                                                  //read the settings and render the replies which don't depend on a user
+        List<String> servers = conf.getList(String.class, "ServerList.Server", List.of());
+        StringJoiner sj = new StringJoiner(" ", "<LIST>", "</LIST>");                                                                       //<LIST> reply containing the game servers
+        for (int i = 0; i < servers.size(); i++) {
+            String first = conf.getString(String.format("ServerList.Server(%d)[@first]", i), StringUtils.EMPTY);
+            sj.add(String.format("<SERVER host=\"%s\"%s/>", servers.get(i), first.isEmpty() ? StringUtils.EMPTY : " first=\"" + first + "\""));
+        }
+        return new ServerConfig(
+                conf.getInt("ServerSetup.MaxSocketIdleTime", ServerMain.DEF_MAX_SOCKET_IDLE_TIME),
+                conf.getInt("ServerSetup.MaxUserIdleTime", ServerMain.DEF_MAX_USER_IDLE_TIME),
+                conf.getInt("ServerSetup.EncryptionKeySize", ServerMain.DEF_ENCRYPTION_KEY_SIZE),
+                conf.getLong("ServerSetup.UsersCacheTimeout", ServerMain.DEF_USER_CACHE_TIMEOUT),
+                sj.toString(),
+                String.format("<CHAT server=\"%s\"/>", conf.getString("ServerList.ChatServer", StringUtils.EMPTY)));
+    }
+}
@@ -2,19 +2,18 @@ package ru.heckzero.server;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
-import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import org.apache.commons.configuration2.XMLConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
 import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
@@ -25,35 +24,73 @@ import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataBuilder;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
 import ru.heckzero.server.items.ArsenalLoot;
 import ru.heckzero.server.items.Item;
 import ru.heckzero.server.items.ItemTemplate;
+import ru.heckzero.server.net.KeepaliveHandler;
+import ru.heckzero.server.net.MetricsHttpHandler;
 import ru.heckzero.server.net.NetInHandlerMain;
 import ru.heckzero.server.net.NetOutHandler;
+import ru.heckzero.server.net.NulFrameDecoder;
+import ru.heckzero.server.net.RateLimitHandler;
+import ru.heckzero.server.net.ServerMetrics;
+import ru.heckzero.server.net.SlowConsumerHandler;
+import ru.heckzero.server.net.TrafficJournal;
+import ru.heckzero.server.net.Transport;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserLevelData;
 import ru.heckzero.server.utils.History;
 import ru.heckzero.server.world.*;
 
 import java.io.File;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ServerMain {
+    static {
+        System.setProperty("log4j.shutdownHookEnabled", "false");                                                                           //must be set before log4j starts, the default configuration it starts with would register the hook stopping the logging before ShutdownCoordinator is done
+    }
     private static final Logger logger = LogManager.getFormatterLogger();
     private static final String VERSION = "0.7";                                                                                            //server version
     private static final String CONF_DIR = "conf";                                                                                          //configuration directory
     private static final String CONF_FILE = "heckzero.xml";                                                                                 //server configuration file
-    private static final Integer DEF_MAX_WORKER_THREADS = 8;                                                                                //MAX threads in EventExecutorGroup for the offloading EventLoop threads
+    private static final Integer DEF_BACKLOG = 1024;                                                                                        //accept queue length of a listening socket, it's capped by the kernel (net.core.somaxconn)
+    private static final Integer DEF_ACCEPTORS = 1;                                                                                         //listening sockets bound to the same port with SO_REUSEPORT (epoll only), the kernel balances the accepts across them, 0 - one per CPU core
+    private static final Integer DEF_EVENT_LOOP_THREADS = 0;                                                                                //event loop threads serving the client channels, 0 - one per CPU core
+    private static final Integer DEF_MAX_WORKER_THREADS = 8;                                                                                //MAX threads in the command executor pool for the offloading EventLoop threads
+    private static final Integer DEF_CHAT_WORKER_THREADS = 2;                                                                               //threads in the chat executor pool, the chat commands don't share the threads with the game ones
+    private static final Integer DEF_CHAT_QUEUE_SIZE = 1024;                                                                                //chat channels waiting for a chat worker, the chat channels above the limit are disconnected
+    private static final Integer DEF_CHAT_LISTEN_PORT = 0;                                                                                  //port of a separate chat listener having its own event loops, 0 - the chat connections come to the game listener
+    private static final Integer DEF_CHAT_EVENT_LOOP_THREADS = 1;                                                                           //event loop threads serving the chat listener channels
+    private static final String DEF_TRANSPORT = "auto";                                                                                     //netty transport: nio, epoll, io_uring (Linux 5.9+) or auto - epoll if it's available, nio otherwise
+    private static final String DEF_EXECUTOR_TYPE = "default";                                                                              //command executor type: default - a pool of MaxWorkerThreads threads, virtual - a virtual thread per task (Java 21+)
     private static final String DEF_LISTEN_HOST = "0.0.0.0";                                                                                //default IP (host) to listen may be IP or FQDN
     private static final Integer DEF_LISTEN_PORT = 5190;                                                                                    //default port to listen
-    private static final Integer DEF_MAX_PACKET_SIZE = 28500;                                                                               //max packet length to parse by DelimiterBasedFrameDecoder handler
-    private static final Integer DEF_MAX_SOCKET_IDLE_TIME = 5;                                                                              //default socket(non an authorized user) idle timeout (sec)
+    private static final Integer DEF_MAX_PACKET_SIZE = 28500;                                                                               //max packet length to parse by NulFrameDecoder handler
+    private static final String DEF_METRICS_HTTP_HOST = "127.0.0.1";                                                                        //the metrics HTTP endpoint is local by default, it has no authentication
+    private static final Integer DEF_METRICS_HTTP_PORT = 0;                                                                                 //port of the metrics HTTP endpoint, 0 - the endpoint is off
+    public static final Integer DEF_MAX_SOCKET_IDLE_TIME = 5;                                                                               //default socket(non an authorized user) idle timeout (sec)
     public static final Integer DEF_MAX_USER_IDLE_TIME = 32;                                                                                //Max user timeout
     public static final Integer DEF_ENCRYPTION_KEY_SIZE = 32;                                                                               //encryption key length
     public static final Integer DEF_USER_CACHE_TIMEOUT = 600;                                                                               //users cache timout (sec) after which it will be purged from UserManager cache
+    private static final Integer DEF_CONFIG_CHECK_INTERVAL = 5;                                                                             //seconds between the config file modification checks, 0 - the config is not reloaded
+    public static final Long DEF_FLUSH_TICK_MICROS = 500L;                                                                                  //max delay (microseconds) of the flush of messages sent outside the command processing, 0 - flush on the next event loop run
     public static final int ONE_MES = 2678400;                                                                                              //seconds in 1 month (by timezero)
     public static final double CURR_RATE_SILV_TO_COP = 100.0;                                                                               //silver to copper exchange rate
     public static final double CURR_RATE_GOLD_TO_SILV = 10.0;                                                                               //gold to silver exchange rate
@@ -62,16 +99,18 @@ public class ServerMain {
     private final static File hbnateCfg = new File(System.getProperty("user.dir") + File.separatorChar + CONF_DIR + File.separatorChar + "hibernate.cfg.xml");
     private final static File confFile = new File(System.getProperty("user.dir") + File.separatorChar + CONF_DIR + File.separatorChar + CONF_FILE);
 
-    private static final String OS = System.getProperty("os.name").toLowerCase();                                                           //OS type we are running on
-    private static final boolean IS_UNIX = (OS.contains("nix") || OS.contains("nux")) ;                                                     //if the running OS is Linux/Unix family
     public static final ScheduledExecutorService userTasksScheduledExecutor = Executors.newSingleThreadScheduledExecutor();                 //scheduled executor used in various classes
 
-    public static XMLConfiguration hzConfiguration = null;
+    public static volatile XMLConfiguration hzConfiguration = null;                                                                         //it's replaced by a new one when the config file changes, the hot paths use the ServerConfig snapshot instead
+    private static long confLastModified = 0L;                                                                                              //config file modification time at the last read
+    private static Transport transport = Transport.NIO;                                                                                     //the transport of the listening sockets and the event loops, chosen at the start
+    public static ExecutorService commandExecutor = null;                                                                                   //the executor running channel events and user mailboxes
+    public static ExecutorService chatExecutor = null;                                                                                      //the executor running the chat channel events, a bulkhead keeping a chat flood away from the game commands
     public static SessionFactory sessionFactory = null;                                                                                     //Hibernate SessionFactory used across the server
+    public static final ChannelGroup clientChannels = new DefaultChannelGroup("clients", GlobalEventExecutor.INSTANCE);                     //all the connected client channels
 
     static {
         ((LoggerContext) LogManager.getContext(false)).setConfigLocation(log4jCfg.toURI());                                                 //set and read log4j configuration file name
-        dbInit();                                                                                                                           //bootstrap the hibernate and 2nd level cache and create a SessionFactory
     }
 
     public static void main(String[] args) {
@@ -84,45 +123,132 @@ public class ServerMain {
         logger.info("HeckZero server version %s copyright (C) 2021-2002 by HeckZero team is starting...", VERSION);
         if (!readServerConfig())                                                                                                            //can't read config file
             return;
-        EventLoopGroup group = IS_UNIX ? new EpollEventLoopGroup() : new NioEventLoopGroup();                                               //an event loop group for server and client channels (netty)
-        EventExecutorGroup execGroup = new DefaultEventExecutorGroup(hzConfiguration.getInt("MaxWorkerThreads", DEF_MAX_WORKER_THREADS));   //DefaultEventLoopGroup will offload operations from the EventLoop
+        dbInit();                                                                                                                           //bootstrap the hibernate and 2nd level cache and create a SessionFactory
+        TrafficJournal.init();                                                                                                              //start the client traffic capture subsystem
+        RateLimitHandler.init();                                                                                                            //read the command rate limits
+        SlowConsumerHandler.init();                                                                                                         //read the write buffer water marks and the slow client budgets
+        ServerMetrics.init();                                                                                                               //command latency and response size histograms
+        int configCheckInterval = hzConfiguration.getInt("ServerSetup.ConfigCheckInterval", DEF_CONFIG_CHECK_INTERVAL);
+        if (configCheckInterval > 0)                                                                                                        //watch the config file and reload it on change
+            userTasksScheduledExecutor.scheduleWithFixedDelay(ServerMain::reloadServerConfig, configCheckInterval, configCheckInterval, TimeUnit.SECONDS);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int acceptors = hzConfiguration.getInt("ServerSetup.Acceptors", DEF_ACCEPTORS);
+        int eventLoopThreads = hzConfiguration.getInt("ServerSetup.EventLoopThreads", DEF_EVENT_LOOP_THREADS);
+        if (acceptors <= 0)
+            acceptors = cores;
+        if (eventLoopThreads <= 0)
+            eventLoopThreads = cores;
+        transport = Transport.select(hzConfiguration.getString("ServerSetup.Transport", DEF_TRANSPORT));
+        if (acceptors > 1 && transport.reusePortOption() == null) {
+            logger.warn("SO_REUSEPORT is not available with the %s transport, the server will listen on a single socket", transport);
+            acceptors = 1;
+        }
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(acceptors, "acceptor");                                                      //an event loop per listening socket, it only accepts the connections
+        EventLoopGroup group = transport.newEventLoopGroup(eventLoopThreads, "eventLoop");                                                  //an event loop group for the client channels (netty)
+        ExecutorService virtualExecutor = hzConfiguration.getString("ServerSetup.ExecutorType", DEF_EXECUTOR_TYPE).equals("virtual") ? newVirtualThreadExecutor() : null;
+        int chatWorkerThreads = hzConfiguration.getInt("ServerSetup.ChatWorkerThreads", DEF_CHAT_WORKER_THREADS);
+        commandExecutor = virtualExecutor != null ? virtualExecutor : Executors.newFixedThreadPool(hzConfiguration.getInt("ServerSetup.MaxWorkerThreads", DEF_MAX_WORKER_THREADS), new DefaultThreadFactory("cmdWorker"));   //the executor will offload operations from the EventLoop
+        chatExecutor = new ThreadPoolExecutor(chatWorkerThreads, chatWorkerThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(hzConfiguration.getInt("ServerSetup.ChatQueueSize", DEF_CHAT_QUEUE_SIZE)), new DefaultThreadFactory("chatWorker"));
+        ServerMetrics.registerExecutor("game", commandExecutor);                                                                            //queue depth gauges of the bulkheads
+        ServerMetrics.registerExecutor("chat", chatExecutor);
         int listenPort = hzConfiguration.getInt("ServerSetup.ListenPort", DEF_LISTEN_PORT);                                                 //port the server will be listening on
         String listenHost = hzConfiguration.getString("ServerSetup.ListenHost", DEF_LISTEN_HOST).trim().replace("*", "0.0.0.0");            //host the server will be listening on
+        int chatListenPort = hzConfiguration.getInt("ServerSetup.ChatListenPort", DEF_CHAT_LISTEN_PORT);
+        String chatListenHost = StringUtils.defaultIfBlank(hzConfiguration.getString("ServerSetup.ChatListenHost"), listenHost).trim().replace("*", "0.0.0.0");   //the game listen host if it's not set
+        EventLoopGroup chatGroup = chatListenPort > 0 ? transport.newEventLoopGroup(hzConfiguration.getInt("ServerSetup.ChatEventLoopThreads", DEF_CHAT_EVENT_LOOP_THREADS), "chatEventLoop") : null;
+        ShutdownCoordinator shutdownCoordinator = null;
 
         try {
-            NetInHandlerMain netInHandlerMain = new NetInHandlerMain();                                                                     //an inbound handler (will do client command processing)
+            NetInHandlerMain netInHandlerMain = new NetInHandlerMain(listenHost, commandExecutor);                                          //an inbound handler (will do client command processing)
             NetOutHandler netOutHandler = new NetOutHandler();                                                                              //an outbound handler (server response massage)
 
-            ServerBootstrap b = new ServerBootstrap();                                                                                      //TCP server bootstrapping procedure (netty)
-            b.group(group).                                                                                                                 //an event loop group used by server and client threads
-                    channel(IS_UNIX ? EpollServerSocketChannel.class : NioServerSocketChannel.class).
-                    option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true).
-                    childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) {                                                                         //add channel handlers
-                            ChannelPipeline pl = ch.pipeline();                                                                             //get the channel pipeline
-
-                            pl.addLast("socketIdleHandler", new ReadTimeoutHandler(hzConfiguration.getInt("ServerSetup.MaxSocketIdleTime", DEF_MAX_SOCKET_IDLE_TIME)));  //set a read timeout handler
-                            pl.addLast(netOutHandler);                                                                                      //adding 0x00 byte terminator to an outbound XML string for the sake of XML Flash requirements
-
-                            pl.addLast(new DelimiterBasedFrameDecoder(DEF_MAX_PACKET_SIZE, Delimiters.nulDelimiter()));                     //Adobe Flash XML Socket 0x0 byte terminator detection
-                            pl.addLast(execGroup, netInHandlerMain);                                                                        //the inbound handler will be executed in separate event exec group
-                        }
-                    });
-
-            ChannelFuture f = b.bind(listenHost, listenPort).sync();                                                                        //bind and start accepting incoming connections
-            logger.info("server has been started and is listening on %s", f.channel().localAddress().toString());
-            f.channel().closeFuture().sync();                                                                                               //wait for the server channel to close. (when???) but we have to wait to keep application running
+            ServerBootstrap b = newClientBootstrap(bossGroup, group, netInHandlerMain, netOutHandler);                                      //TCP server bootstrapping procedure (netty)
+            if (acceptors > 1)
+                b.option(transport.reusePortOption(), true);
+            ChannelGroup serverChannels = new DefaultChannelGroup("listeners", GlobalEventExecutor.INSTANCE);
+            for (int i = 0; i < acceptors; i++)                                                                                             //bind and start accepting incoming connections, every listening socket gets its own acceptor event loop
+                serverChannels.add(b.bind(listenHost, listenPort).sync().channel());
+            logger.info("server has been started and is listening on %s, %s transport, %d acceptor(s), %d event loop threads", serverChannels.iterator().next().localAddress().toString(), transport, acceptors, eventLoopThreads);
+            if (chatGroup != null) {                                                                                                        //the chat connections (ServerList.ChatServer) have their own listener, event loops and executor from the very start
+                NetInHandlerMain chatInHandler = new NetInHandlerMain(chatListenHost, chatExecutor);
+                Channel chatChannel = newClientBootstrap(bossGroup, chatGroup, chatInHandler, netOutHandler).bind(chatListenHost, chatListenPort).sync().channel();
+                serverChannels.add(chatChannel);
+                logger.info("chat listener is listening on %s", chatChannel.localAddress().toString());
+            }
+            int metricsPort = hzConfiguration.getInt("Metrics.HttpPort", DEF_METRICS_HTTP_PORT);
+            if (metricsPort > 0) {                                                                                                          //the metrics endpoint shares the event loops with the game server but has its own port, as the game protocol starts with the server sending <KEY/>
+                MetricsHttpHandler metricsHttpHandler = new MetricsHttpHandler();
+                ServerBootstrap mb = new ServerBootstrap().group(bossGroup, group).channel(transport.serverChannelClass()).
+                        childHandler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            public void initChannel(SocketChannel ch) {
+                                ch.pipeline().addLast(new ReadTimeoutHandler(DEF_MAX_SOCKET_IDLE_TIME), new HttpServerCodec(), new HttpObjectAggregator(DEF_MAX_PACKET_SIZE), metricsHttpHandler);
+                            }
+                        });
+                Channel metricsChannel = mb.bind(hzConfiguration.getString("Metrics.HttpHost", DEF_METRICS_HTTP_HOST), metricsPort).sync().channel();
+                serverChannels.add(metricsChannel);                                                                                         //it will be closed on shutdown along with the game listeners
+                logger.info("metrics are available at http://%s/metrics", metricsChannel.localAddress().toString().replaceFirst("^/", ""));
+            }
+            shutdownCoordinator = new ShutdownCoordinator(serverChannels, clientChannels, chatGroup != null ? new EventLoopGroup[] {bossGroup, group, chatGroup} : new EventLoopGroup[] {bossGroup, group});
+            Runtime.getRuntime().addShutdownHook(new Thread(shutdownCoordinator::shutdown, "shutdown"));                                    //SIGTERM, SIGINT or System.exit() will stop the server in order
+            serverChannels.newCloseFuture().sync();                                                                                         //wait for the server channels to close. (when???) but we have to wait to keep application running
         } catch (Exception e) {
             logger.error("can't bootstrap the server: %s:%s", e.toString(), e.getMessage());
         }
+        if (shutdownCoordinator != null) {
+            shutdownCoordinator.shutdown();                                                                                                 //disconnect the clients and persist the users, or wait for the shutdown hook doing it
+            return;
+        }
+        bossGroup.shutdownGracefully();
         group.shutdownGracefully();                                                                                                         //shut down the main event group
-        execGroup.shutdownGracefully();                                                                                                     //shut down the offload event group
+        if (chatGroup != null)
+            chatGroup.shutdownGracefully();
+        commandExecutor.shutdown();                                                                                                         //shut down the command executor
+        chatExecutor.shutdown();
         userTasksScheduledExecutor.shutdownNow();
+        TrafficJournal.stop();                                                                                                              //drain and close the traffic journal
+        LogManager.shutdown();
         return;
     }
 
-    private static void dbInit() {                                                                                                          //bootstrap the Hibernate
+    private static ServerBootstrap newClientBootstrap(EventLoopGroup bossGroup, EventLoopGroup group, NetInHandlerMain netInHandlerMain, NetOutHandler netOutHandler) {
+        ServerBootstrap b = new ServerBootstrap();
+        KeepaliveHandler keepaliveHandler = new KeepaliveHandler();
+        b.group(bossGroup, group).                                                                                                          //event loop groups used by the listening sockets and the client channels
+                channel(transport.serverChannelClass()).
+                option(ChannelOption.SO_BACKLOG, hzConfiguration.getInt("ServerSetup.Backlog", DEF_BACKLOG)).childOption(ChannelOption.SO_KEEPALIVE, true).
+                childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, SlowConsumerHandler.getWaterMark()).                                     //a channel having more bytes pending than the high water mark becomes unwritable
+                childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(SocketChannel ch) {                                                                             //add channel handlers
+                        ChannelPipeline pl = ch.pipeline();                                                                                 //get the channel pipeline
+                        clientChannels.add(ch);                                                                                             //the channel is removed from the group once it's closed
+
+                        pl.addLast("socketIdleHandler", new ReadTimeoutHandler(ServerConfig.get().maxSocketIdleTime()));                    //set a read timeout handler
+                        pl.addLast(new SlowConsumerHandler());                                                                              //disconnect the client if it doesn't read its messages within the byte and time budgets
+                        pl.addLast(netOutHandler);                                                                                          //adding 0x00 byte terminator to an outbound XML string for the sake of XML Flash requirements
+
+                        pl.addLast(new NulFrameDecoder(DEF_MAX_PACKET_SIZE));                                                               //Adobe Flash XML Socket 0x0 byte terminator detection, the frames are slices of the received buffer
+                        pl.addLast(keepaliveHandler);                                                                                       //the <N/> keepalives of the logged in users are answered right here and don't consume the rate limit tokens
+                        pl.addLast(new RateLimitHandler());                                                                                 //per channel command rate limiting, it pauses reading from the channel instead of queueing its commands to the executor
+                        pl.addLast(netInHandlerMain);                                                                                       //the inbound handler will offload the channel events to the channel executor or the user mailbox by itself
+                    }
+                });
+        return b;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {                                                                             //Executors.newVirtualThreadPerTaskExecutor() is called reflectively, so the server still builds and runs on Java 17
+        try {
+            ExecutorService executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("commands will be executed by virtual threads");
+            return executor;
+        } catch (Exception e) {
+            logger.warn("virtual threads are not available in Java %s, falling back to the default executor: %s:%s", Runtime.version(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return null;
+    }
+
+    public static void dbInit() {                                                                                                           //bootstrap the Hibernate, it's called on the server start, so the classes referring to ServerMain can be loaded without a database (benchmarks)
         StandardServiceRegistryBuilder standardServiceRegistryBuilder = new StandardServiceRegistryBuilder().configure(hbnateCfg);          //read hibernate configuration from file
         ServiceRegistry serviceRegistry = standardServiceRegistryBuilder.build();                                                           //continue hibernate bootstrapping
 
@@ -138,14 +264,66 @@ public class ServerMain {
     }
 
     public static boolean sync(Object entity) {
+        if (ShutdownCoordinator.defer(entity))                                                                                              //the server is shutting down, the entity will be persisted by the final batched flush
+            return true;
+        return syncAll(List.of(entity));
+    }
+
+    public static boolean syncAll(List<?> entities) {                                                                                       //persist the entities in one transaction
         Transaction tx = null;
-        logger.debug("persisting an entity of type: %s", entity.getClass().getSimpleName());
+        logger.debug("persisting %d entities", entities.size());
         try (Session session = sessionFactory.openSession()) {
             tx  = session.beginTransaction();
-            session.saveOrUpdate(entity);
+            entities.forEach(session::saveOrUpdate);
             tx.commit();
         }catch (Exception e) {
-            logger.error("can't persist an entity %s: %s:%s", entity.toString(), e.getClass().getSimpleName(), e.getMessage());
+            logger.error("can't persist entities %s: %s:%s", entities.size() == 1 ? entities.get(0).toString() : entities.size() + " entities", e.getClass().getSimpleName(), e.getMessage());
+            if (tx != null && tx.isActive()) {
+                try {
+                    tx.rollback();
+                }catch (Exception ex) {logger.error("can't rollback transaction: %s:%s", ex.getClass().getSimpleName(), ex.getMessage());}
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public static boolean update(Object entity, Serializable id, Map<String, ?> properties) {                                               //write only the given properties (changed params) of an already persisted entity, sync() writes the whole row
+        if (properties.isEmpty())                                                                                                           //only the transient or computed params have been changed
+            return true;
+        if (ShutdownCoordinator.defer(entity))                                                                                              //the whole entity will be persisted by the final batched flush
+            return true;
+        SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+        AbstractEntityPersister persister = (AbstractEntityPersister)factory.getMetamodel().entityPersister(entity.getClass());             //the column names and types are taken from the mapping
+        StringJoiner sql = new StringJoiner(", ", String.format("update %s set ", persister.getTableName()), String.format(" where %s = ?", persister.getIdentifierColumnNames()[0]));
+        properties.keySet().forEach(name -> Arrays.stream(persister.getPropertyColumnNames(name)).forEach(column -> sql.add(column + " = ?")));
+        logger.debug("updating %d properties of %s id %s", properties.size(), persister.getEntityName(), id);
+        Transaction tx = null;
+        try (Session session = sessionFactory.openSession()) {
+            SessionImplementor si = session.unwrap(SessionImplementor.class);
+            tx = session.beginTransaction();
+            int updated = session.doReturningWork(connection -> {                                                                           //a plain statement, an HQL bulk update would evict the whole cache region of the entity
+                try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                    int index = 1;
+                    for (Map.Entry<String, ?> property : properties.entrySet()) {
+                        Type type = persister.getPropertyType(property.getKey());
+                        type.nullSafeSet(statement, property.getValue(), index, si);
+                        index += type.getColumnSpan(factory);
+                    }
+                    persister.getIdentifierType().nullSafeSet(statement, id, index, si);
+                    return statement.executeUpdate();
+                }
+            });
+            tx.commit();
+            factory.getCache().evictEntityData(entity.getClass(), id);                                                                      //the cached copy of the entity is stale now
+            if (factory.getCache().getTimestampsCache() != null)                                                                            //the cached queries over the table are stale as well
+                factory.getCache().getTimestampsCache().invalidate(persister.getPropertySpaces(), si);
+            if (updated == 0) {
+                logger.warn("can't update %s id %s, there is no such row", persister.getEntityName(), id);
+                return false;
+            }
+        } catch (Exception e) {
+            logger.error("can't update %s id %s properties %s: %s:%s", persister.getEntityName(), id, properties.keySet(), e.getClass().getSimpleName(), e.getMessage());
             if (tx != null && tx.isActive()) {
                 try {
                     tx.rollback();
@@ -170,7 +348,9 @@ public class ServerMain {
     private boolean readServerConfig() {                                                                                                    //read properties from a configuration file
         logger.info("reading server settings from %s%s%s", CONF_DIR, File.separatorChar, CONF_FILE);
         try {
+            confLastModified = confFile.lastModified();
             hzConfiguration = new Configurations().xml(confFile);
+            ServerConfig.set(ServerConfig.of(hzConfiguration));
             logger.info("server settings have been read ok");
         } catch (ConfigurationException e) {
             logger.error("cant read config file %s, check if the server config file  exists and contains correct settings: %s", confFile.getPath(), e.getMessage());
@@ -179,4 +359,21 @@ public class ServerMain {
         return true;
     }
 
+    private static void reloadServerConfig() {                                                                                              //re-read the config file if it has been modified, a broken file is reported and the current settings are kept
+        long lastModified = confFile.lastModified();
+        if (lastModified == confLastModified)
+            return;
+        confLastModified = lastModified;
+        try {
+            XMLConfiguration conf = new Configurations().xml(confFile);
+            ServerConfig config = ServerConfig.of(conf);
+            hzConfiguration = conf;
+            ServerConfig.set(config);
+            logger.info("server settings have been reloaded from %s: %s", confFile.getPath(), config);
+        } catch (Exception e) {
+            logger.error("can't reload config file %s, keeping the current settings: %s:%s", confFile.getPath(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return;
+    }
+
 }
\ No newline at end of file
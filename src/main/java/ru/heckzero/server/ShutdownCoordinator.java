@@ -0,0 +1,162 @@
+package ru.heckzero.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.net.TrafficJournal;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.user.UserManager;
+import ru.heckzero.server.utils.SerialExecutor;
+import ru.heckzero.server.world.PostOffice;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ShutdownCoordinator {                                                                                                          //stops the server in order: stop accepting, disconnect the clients, drain the user mailboxes, then persist the deferred state in batched transactions within a time budget
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final Integer DEF_DRAIN_TIME = 10;                                                                                       //seconds to disconnect the clients and drain the mailboxes within
+    private static final Integer DEF_FLUSH_TIME = 20;                                                                                       //seconds to persist the deferred entities within
+    private static final Integer DEF_BATCH_SIZE = 100;                                                                                      //entities persisted in one transaction
+
+    private static volatile boolean deferring = false;                                                                                      //the server is shutting down, ServerMain.sync() calls are deferred to the final flush
+    private static final Queue<Object> deferred = new ConcurrentLinkedQueue<>();                                                            //entities to be persisted by the final flush in the order they have been synced
+
+    private final ChannelGroup serverChannels, clientChannels;
+    private final EventLoopGroup[] groups;
+    private boolean done = false;
+
+    public ShutdownCoordinator(ChannelGroup serverChannels, ChannelGroup clientChannels, EventLoopGroup... groups) {
+        this.serverChannels = serverChannels;
+        this.clientChannels = clientChannels;
+        this.groups = groups;
+        return;
+    }
+
+    public static boolean defer(Object entity) {                                                                                            //called by ServerMain.sync(), returns true if the entity will be persisted by the final flush instead
+        if (!deferring)
+            return false;
+        deferred.add(entity);
+        return true;
+    }
+
+    public synchronized void shutdown() {                                                                                                   //it's called by the shutdown hook and by the main thread once the server channel has been closed, the second call waits for the first one to complete
+        if (done)
+            return;
+        done = true;
+        long started = System.nanoTime();
+        long drainDeadline = started + TimeUnit.SECONDS.toNanos(ServerMain.hzConfiguration.getInt("Shutdown.DrainTime", DEF_DRAIN_TIME));
+        long flushDeadline = drainDeadline + TimeUnit.SECONDS.toNanos(ServerMain.hzConfiguration.getInt("Shutdown.FlushTime", DEF_FLUSH_TIME));
+        logger.info("shutting down the server, %d clients connected, %d users cached", clientChannels.size(), UserManager.countUsers(UserManager.UserType.HUMAN));
+
+        deferring = true;                                                                                                                   //the logouts below won't hit the database one by one
+        serverChannels.close().awaitUninterruptibly(remaining(drainDeadline), TimeUnit.NANOSECONDS);                                        //stop accepting the connections
+        clientChannels.close().awaitUninterruptibly(remaining(drainDeadline), TimeUnit.NANOSECONDS);                                        //disconnect the clients, the users will be logged out on their mailboxes
+        for (EventLoopGroup group : groups)                                                                                                 //the event loops fire the pending channel inactive events and stop
+            group.shutdownGracefully(0, remaining(drainDeadline), TimeUnit.NANOSECONDS).awaitUninterruptibly(remaining(drainDeadline), TimeUnit.NANOSECONDS);
+        runDelayedTasks();
+        if (!awaitMailboxes(drainDeadline))
+            logger.warn("the mailboxes haven't been drained in time, %d tasks are still pending", SerialExecutor.getPendingTasks());
+        syncInGameUsers(flushDeadline);                                                                                                     //the users that haven't been logged out in time
+        ServerMain.commandExecutor.shutdown();
+        ServerMain.chatExecutor.shutdown();
+        if (!awaitTermination(ServerMain.commandExecutor, flushDeadline) || !awaitTermination(ServerMain.chatExecutor, flushDeadline))
+            logger.warn("the executors haven't terminated in time, %d tasks are still pending", SerialExecutor.getPendingTasks());
+        logger.info("clients have been disconnected and the mailboxes drained in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        flush(flushDeadline, ServerMain.hzConfiguration.getInt("Shutdown.BatchSize", DEF_BATCH_SIZE));
+        TrafficJournal.stop();                                                                                                              //drain and close the traffic journal
+        ServerMain.sessionFactory.close();
+        logger.info("the server has been shut down in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        LogManager.shutdown();                                                                                                              //log4j's own shutdown hook is disabled, so it doesn't stop logging before we are done
+        return;
+    }
+
+    private void runDelayedTasks() {                                                                                                        //send the parcel arrival IMS notifications now instead of dropping them, the periodic tasks are just cancelled
+        ServerMain.userTasksScheduledExecutor.shutdownNow();                                                                                //the tasks it returns are cancelled when they are run, so the notifications are taken from the post office instead
+        logger.info("sent %d pending parcel notifications ahead of time", PostOffice.sendPendingNotifications());
+        return;
+    }
+
+    private void syncInGameUsers(long deadline) {                                                                                           //each sync runs in the user mailbox after the tasks still pending there, so it never runs concurrently with them
+        List<User> users = List.copyOf(UserManager.getCachedUsers(UserManager.UserType.IN_GAME));
+        if (users.isEmpty())
+            return;
+        CountDownLatch synced = new CountDownLatch(users.size());
+        users.forEach(user -> user.getMailbox().executeNonDroppable(() -> {
+            try {
+                user.sync();
+            } finally {
+                synced.countDown();
+            }
+        }));
+        logger.warn("%d users haven't been logged out in time, they are being synced by force", users.size());
+        try {
+            if (!synced.await(remaining(deadline), TimeUnit.NANOSECONDS))
+                logger.error("%d of %d force synced users haven't been synced in time", synced.getCount(), users.size());
+        } catch (InterruptedException e) {
+            logger.error("interrupted while waiting for the users to be synced");
+        }
+        return;
+    }
+
+    private boolean awaitTermination(ExecutorService executor, long deadline) {
+        try {
+            return executor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private boolean awaitMailboxes(long deadline) {                                                                                         //wait for the mailboxes and the channel executors to run all their tasks
+        while (SerialExecutor.getPendingTasks() > 0) {
+            if (remaining(deadline) == 0)
+                return false;
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flush(long deadline, int batchSize) {                                                                                      //persist the deferred entities, batchSize of them per transaction, a failed batch is retried entity by entity
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());                                                              //an entity may have been synced several times, persist it once
+        List<Object> batch = new ArrayList<>(batchSize);
+        int persisted = 0, failed = 0, batches = 0;
+        long started = System.nanoTime();
+        logger.info("persisting %d deferred entities in batches of %d", deferred.size(), batchSize);
+
+        while (remaining(deadline) > 0) {
+            Object entity = deferred.poll();
+            if (entity != null && (!seen.add(entity) || batch.add(entity) && batch.size() < batchSize))
+                continue;
+            if (batch.isEmpty())                                                                                                            //all the entities have been persisted
+                break;
+            if (ServerMain.syncAll(batch))
+                persisted += batch.size();
+            else {
+                for (Object e : batch) {
+                    if (ServerMain.syncAll(List.of(e)))
+                        persisted++;
+                    else
+                        failed++;
+                }
+            }
+            batch.clear();
+            if (++batches % 10 == 0)
+                logger.info("flush progress: %d entities persisted, %d failed, %d left", persisted, failed, deferred.size());
+        }
+        int left = deferred.size() + batch.size();
+        logger.info("%d entities have been persisted in %d ms, %d failed", persisted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), failed);
+        if (left > 0)
+            logger.error("the flush time budget is over, %d entities haven't been persisted", left);
+        return;
+    }
+
+    private static long remaining(long deadline) {return Math.max(0L, deadline - System.nanoTime());}
+}
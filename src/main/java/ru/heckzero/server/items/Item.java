@@ -1,7 +1,6 @@
 package ru.heckzero.server.items;
 
 import org.apache.commons.lang3.Range;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.logging.log4j.LogManager;
@@ -15,7 +14,9 @@ import org.hibernate.query.NativeQuery;
 import org.hibernate.type.LongType;
 import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.user.User;
+import ru.heckzero.server.utils.DirtyParams;
 import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.*;
 import java.lang.reflect.Field;
@@ -24,7 +25,6 @@ import java.time.Instant;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
 @org.hibernate.annotations.NamedQuery(name = "Item_DeleteItemByIdWithSub", query = "delete from Item i where i.id = :id or i.pid = :id")
@@ -47,6 +47,7 @@ public class Item implements Cloneable {
 
     public enum Params {id, pid,    user_id, section, slot,  b_id, cell_id, rcpt_id, rcpt_dt, name, txt, massa, st, made, min, protect, quality, maxquality, OD, rOD, type, damage, calibre, shot, nskill, max_count, up, grouping, range, nt, build_in, c, radius, cost, cost2, s1, s2, s3, s4, count, lb, dt, hz, res, owner, tm, ln}
     private static final EnumSet<Params> itemParams = EnumSet.of(Params.id, Params.section, Params.slot, Params.name, Params.txt, Params.massa, Params.st, Params.made, Params.min, Params.protect, Params.quality, Params.maxquality, Params.OD, Params.rOD, Params.type, Params.damage, Params.calibre, Params.shot, Params.nskill, Params.max_count, Params.up, Params.grouping, Params.range, Params.nt, Params.build_in, Params.c, Params.radius, Params.cost, Params.cost2, Params.s1, Params.s2, Params.s3, Params.s4, Params.count, Params.lb, Params.dt, Params.hz, Params.res, Params.owner, Params.tm, Params.ln);
+    private static final ParamsXml itemXml = ParamsXml.of(itemParams);                                                                      //the params XML serializer
 
     @SuppressWarnings("unchecked")
     public static long getNextGlobalId() {                                                                                                  //get next main id for the item from the sequence
@@ -119,9 +120,16 @@ public class Item implements Cloneable {
 
     @Transient
     private ItemBox included = new ItemBox(true);
+    @Transient
+    private DirtyParams<Params> dirtyParams = new DirtyParams<>(Params.class);                                                              //the params modified since the last sync
+    @Transient
+    private boolean stored = false;                                                                                                         //the item has been loaded from or written to db with its current id, only the modified columns are updated then
 
     protected Item() { }
 
+    @PostLoad
+    private void loaded() {stored = true;}
+
     public Item(ItemTemplate itmpl) {                                                                                                      //create (clone) an Item from ItemTemplate
         if (itmpl == null)
             return;
@@ -157,26 +165,32 @@ public class Item implements Cloneable {
 
     public ItemBox getIncluded() {return included;}                                                                                         //return included items as item box
 
-    public boolean setParam(Params paramName, Object paramValue) {                                                                          //set an item param to paramValue
-        return ParamUtils.setParam(this, paramName.toString(), paramValue);                                                                 //delegate param setting to ParamUtils
+    public boolean setParam(Params paramName, Object paramValue) {return paramSet(paramName, ParamUtils.setParam(this, paramName, paramValue));} //set an item param to paramValue, delegate param setting to ParamUtils
+    public boolean setInt(Params paramName, int paramValue) {return paramSet(paramName, ParamUtils.setInt(this, paramName, paramValue));}   //the typed setters skip the value conversion when the field has the same type
+    public boolean setLong(Params paramName, long paramValue) {return paramSet(paramName, ParamUtils.setLong(this, paramName, paramValue));}
+    public boolean setDouble(Params paramName, double paramValue) {return paramSet(paramName, ParamUtils.setDouble(this, paramName, paramValue));}
+    public boolean setString(Params paramName, String paramValue) {return paramSet(paramName, ParamUtils.setString(this, paramName, paramValue));}
+    private boolean paramSet(Params paramName, boolean isSet) {
+        if (isSet)
+            dirtyParams.mark(paramName);
+        return isSet;
     }
     public void setParams(Map<Params, Object> params) {params.forEach(this::setParam);}
     public void resetParam(Params paramName) {setParam(paramName, null);}
     public void resetParams(Set<Item.Params> resetParams) {resetParams.forEach(this::resetParam);}
-    public void decrease(int count) {setParam(Params.count, Math.max(1, getCount() - count));}
-    public void setNextGlobalId() {setParam(Params.id, getNextGlobalId());}
-
-    public String getParamStr(Params param)    {return ParamUtils.getParamStr(this, param.toString());}
-    public int getParamInt(Params param)       {return ParamUtils.getParamInt(this, param.toString());}
-    public long getParamLong(Params param)     {return ParamUtils.getParamLong(this, param.toString());}
-    public double getParamDouble(Params param) {return ParamUtils.getParamDouble(this, param.toString());}
-    private String getParamXml(Params param)   {return ParamUtils.getParamXml(this, param.toString());}                                     //get param as XML attribute, will return an empty string if value is empty and appendEmpty == false
-
-    public String getXml() {
-        StringJoiner sj = new StringJoiner("", "", "</O>");
-        sj.add(itemParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<O ", ">")));    //parent item
-        sj.add(getIncluded().getXml());
-        return sj.toString();
+    public void decrease(int count) {setInt(Params.count, Math.max(1, getCount() - count));}
+    public void setNextGlobalId() {setLong(Params.id, getNextGlobalId());}
+
+    public String getParamStr(Params param)    {return ParamUtils.getParamStr(this, param);}
+    public int getParamInt(Params param)       {return ParamUtils.getParamInt(this, param);}
+    public long getParamLong(Params param)     {return ParamUtils.getParamLong(this, param);}
+    public double getParamDouble(Params param) {return ParamUtils.getParamDouble(this, param);}
+
+    public String getXml() {return appendXml(new StringBuilder(512)).toString();}
+    public StringBuilder appendXml(StringBuilder sb) {                                                                                      //append the item and its included items, the nested items share the same builder
+        itemXml.append(sb.append("<O"), this).append('>');                                                                                  //parent item
+        getIncluded().appendXml(sb);
+        return sb.append("</O>");
     }
 
     public ItemBox getAllItems() {
@@ -192,7 +206,7 @@ public class Item implements Cloneable {
             logger.warn("can't split item id %d %s, item's count %d is <= then requested count %d", id, getLogDescription(), itmCount, count);
             return null;
         }
-        setParam(Params.count, itmCount - count);
+        setInt(Params.count, itmCount - count);
         Item splitted = null;
         try {
             splitted = this.clone();
@@ -200,8 +214,8 @@ public class Item implements Cloneable {
             logger.error("can't clone item %d", getId());
             return null;
         }
-        splitted.setParam(Params.count, count);                                                                                             //set the count of the new item
-        splitted.setParam(Params.id, newId.get());                                                                                          //set a new id for the new item
+        splitted.setInt(Params.count, count);                                                                                               //set the count of the new item
+        splitted.setLong(Params.id, newId.get());                                                                                           //set a new id for the new item
         return splitted;                                                                                                                    //return a new item
     }
 
@@ -226,6 +240,8 @@ public class Item implements Cloneable {
     protected Item clone() throws CloneNotSupportedException {                                                                              //guess what?
         Item cloned = (Item)super.clone();                                                                                                  //clone only primitive fields by super.clone()
         cloned.included = new ItemBox();
+        cloned.dirtyParams = new DirtyParams<>(Params.class);                                                                               //the clone is a new item, it's written as a whole
+        cloned.stored = false;
         return cloned;
     }
 
@@ -236,12 +252,16 @@ public class Item implements Cloneable {
         return sj.toString();
     }
 
-    public boolean sync() {                                                                                                                 //force=true means sync the item anyway, whether needSync is true
-        logger.info("syncing item %s", this);
-        if (!ServerMain.sync(this)) {
+    public boolean sync() {                                                                                                                 //a new item or an item with a new id is written as a whole, otherwise only the modified columns are updated
+        EnumSet<Params> changed = dirtyParams.drain();
+        boolean wholeRow = !stored || changed.contains(Params.id);
+        logger.info("syncing item %s, changed params: %s", this, wholeRow ? "all" : changed);
+        if (!(wholeRow ? ServerMain.sync(this) : ServerMain.update(this, id, ParamUtils.getStoredParams(this, changed, "")))) {
             logger.error("can't sync item id %d", id);
+            dirtyParams.markAll(changed);                                                                                                   //they will be written by a next sync() call
             return false;
         }
+        stored = true;
         return included.sync();
     }
 
@@ -0,0 +1,102 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.user.User;
+
+@Sharable
+public class KeepaliveHandler extends ChannelInboundHandlerAdapter {                                                                        //answers the <N/> keepalives of the logged in users right in the event loop, they never reach the command executor
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final long NO_VALUE = -1L;                                                                                               //the attribute is absent from the keepalive
+    private static final long BAD_VALUE = -2L;                                                                                              //the attribute value is not a plain number
+
+    private final ServerMetrics.CommandStats gameStats = ServerMetrics.register("GAME_N"), chatStats = ServerMetrics.register("CHAT_N");    //the keepalives are counted along with the ones taken by the slow path
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {                                                       //the idle timer has already been reset by the read timeout handler in front of this one
+        ByteBuf frame = (ByteBuf)msg;
+        User user = (User)ctx.channel().attr(AttributeKey.valueOf("user")).get();                                                           //null until the channel has been logged in
+        Object chType = ctx.channel().attr(AttributeKey.valueOf("chType")).get();
+        if (user == null || chType == User.ChannelType.NOUSER || !isKeepalive(frame, user, chType == User.ChannelType.GAME)) {              //not a keepalive or its counters don't match, the command processor will handle it in order with the other commands
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        long started = System.nanoTime();
+        TrafficJournal.inbound(ctx.channel(), frame);
+        ReferenceCountUtil.release(msg);
+        (chType == User.ChannelType.GAME ? gameStats : chatStats).record(0L, started, System.nanoTime(), 0L);
+        logger.trace("keepalive from %s has been answered by the fast path", ctx.channel().attr(AttributeKey.valueOf("chStr")).get());
+        return;
+    }
+
+    private static boolean isKeepalive(ByteBuf buf, User user, boolean checkCounters) {                                                     //the frame is a single <N id1="" id2="" i1=""/> element and its counters match the cached server ones
+        int end = buf.writerIndex();
+        int i = skipWhitespace(buf, buf.readerIndex(), end);
+        if (i + 2 >= end || buf.getByte(i) != '<' || buf.getByte(i + 1) != 'N')
+            return false;
+        i += 2;
+        long id1 = NO_VALUE, id2 = NO_VALUE, i1 = NO_VALUE;
+        while (true) {
+            int ws = i;
+            i = skipWhitespace(buf, i, end);
+            if (i >= end)
+                return false;
+            byte b = buf.getByte(i);
+            if (b == '/' || b == '>') {
+                i += b == '/' ? 1 : 0;
+                if (i >= end || buf.getByte(i) != '>')
+                    return false;
+                break;
+            }
+            if (i == ws)                                                                                                                    //<NEWID/> and the other commands starting with N
+                return false;
+            int eq = buf.indexOf(i, end, (byte)'=');
+            if (eq == -1 || eq + 1 >= end || buf.getByte(eq + 1) != '"')
+                return false;
+            int close = buf.indexOf(eq + 2, end, (byte)'"');
+            if (close == -1)
+                return false;
+            long value = parseLong(buf, eq + 2, close);
+            if (XmlAttributes.equalsAscii(buf, i, eq - i, "id1"))
+                id1 = value;
+            else if (XmlAttributes.equalsAscii(buf, i, eq - i, "id2"))
+                id2 = value;
+            else if (XmlAttributes.equalsAscii(buf, i, eq - i, "i1"))
+                i1 = value;
+            else
+                return false;
+            i = close + 1;
+        }
+        if (skipWhitespace(buf, i + 1, end) != end)                                                                                         //there are more commands in the frame
+            return false;
+        if (!checkCounters)                                                                                                                 //the chat keepalives carry no counters
+            return true;
+        User.IdCounters counters = user.getIdCounters();
+        return counters != null && (id1 == NO_VALUE || id1 == counters.id1()) && (id2 == NO_VALUE || id2 == counters.id2()) && (i1 == NO_VALUE || i1 == counters.i1());
+    }
+
+    private static long parseLong(ByteBuf buf, int start, int end) {
+        if (start == end || end - start > 18)
+            return BAD_VALUE;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.getByte(i);
+            if (b < '0' || b > '9')
+                return BAD_VALUE;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static int skipWhitespace(ByteBuf buf, int i, int end) {
+        while (i < end && (buf.getByte(i) == ' ' || buf.getByte(i) == '\t' || buf.getByte(i) == '\n' || buf.getByte(i) == '\r'))
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,44 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.util.CharsetUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+@Sharable
+public class MetricsHttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {                                                      //serves GET /metrics on the local metrics port, the request is handled right on the event loop as rendering the metrics doesn't block
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        String body;
+        if (!request.method().equals(HttpMethod.GET)) {
+            status = HttpResponseStatus.METHOD_NOT_ALLOWED;
+            body = "only GET is supported\n";
+        } else if (!new QueryStringDecoder(request.uri()).path().equals("/metrics")) {
+            status = HttpResponseStatus.NOT_FOUND;
+            body = "try /metrics\n";
+        } else
+            body = ServerMetrics.getMetricsText();
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);                                                               //a scrape per connection, there is no need in keep-alive here
+        return;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        logger.warn("metrics request from %s failed: %s:%s", ctx.channel().remoteAddress(), cause.getClass().getSimpleName(), cause.getMessage());
+        ctx.close();
+        return;
+    }
+}
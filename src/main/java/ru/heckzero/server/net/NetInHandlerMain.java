@@ -1,10 +1,12 @@
 package ru.heckzero.server.net;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -12,66 +14,204 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xml.sax.SAXException;
 import ru.heckzero.server.utils.CommandProcessor;
+import ru.heckzero.server.utils.SerialExecutor;
+import ru.heckzero.server.ServerConfig;
 import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserManager;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
                                                                                                                                             //TODO change class name to NetInHandler (remove 'Main' word)
 
 @Sharable
 public class NetInHandlerMain extends ChannelInboundHandlerAdapter {
     private static final Logger logger = LogManager.getFormatterLogger();
-                                                                                                                                            //we have only one instance of SAXFactory and ThreadLocal because this class is Sharable, so they don't need to be declared ad static
-    private final SAXParserFactory saxParserFactory = SAXParserFactory.newDefaultInstance();                                                //create SAX XML parser factory
-    private final ThreadLocal<SAXParser> tlParser = ThreadLocal.withInitial(() -> {try {return saxParserFactory.newSAXParser();} catch (Exception e) {logger.error("can't create SAX parser: %s", e.getMessage()); return null;}});
+                                                                                                                                            //we have only one instance of ThreadLocal because this class is Sharable, so it doesn't need to be declared as static
+    private final ThreadLocal<XmlTokenizer> tlTokenizer = ThreadLocal.withInitial(XmlTokenizer::new);                                       //XML tokenizer per each thread, it holds a reusable attributes view
+    private final Map<InetAddress, String> serverNames = new HashMap<>();                                                                   //local addresses the server accepts connections on -> server FQDN, resolved once at startup
+    private final Executor commandExecutor;                                                                                                 //an executor to offload the channel events to
 
-    public NetInHandlerMain() {
-        saxParserFactory.setValidating(false);                                                                                              //disable XML validation, will cause the parser to give a fuck to malformed XML
+    private static final class ReadBatch {                                                                                                  //the frames received by a single read, they are handed to the channel executor as one task
+        private List<ByteBuf> frames = new ArrayList<>(4);
+        private long receivedAt;                                                                                                            //nanoTime() the first frame of the batch has been received at
+    }
+
+    @FunctionalInterface
+    private interface ChannelTask {
+        void run() throws Exception;
+    }
+
+    private final class ChannelEvent implements SerialExecutor.Droppable {                                                                  //a channel event handler run by the channel executor
+        private final ChannelHandlerContext ctx;
+        private final ChannelTask task;
+        private final List<ByteBuf> frames;                                                                                                 //the received frames the handler owns, null for the other events
+
+        private ChannelEvent(ChannelHandlerContext ctx, ChannelTask task, List<ByteBuf> frames) {
+            this.ctx = ctx;
+            this.task = task;
+            this.frames = frames;
+            return;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                try {
+                    errorOccurred(ctx, e);
+                } catch (Exception ex) {logger.error("can't handle an exception: %s:%s", ex.getClass().getSimpleName(), ex.getMessage());}
+            }
+            return;
+        }
+
+        @Override
+        public void dropped() {                                                                                                             //the executor is shut down or overloaded, the commands are lost, so the client is disconnected
+            if (frames != null)
+                frames.forEach(ReferenceCountUtil::release);
+            ctx.close();
+            return;
+        }
+    }
+
+    public NetInHandlerMain(String listenHost, Executor commandExecutor) {                                                                  //resolve the names of the addresses the server is going to listen on, so the reverse DNS won't be done per connection
+        this.commandExecutor = commandExecutor;
+        try {
+            InetAddress listenAddress = InetAddress.getByName(listenHost);
+            List<InetAddress> localAddresses = listenAddress.isAnyLocalAddress() ? NetworkInterface.networkInterfaces().flatMap(NetworkInterface::inetAddresses).toList() : List.of(listenAddress);
+            localAddresses.forEach(a -> serverNames.put(a, a.getCanonicalHostName()));
+        } catch (Exception e) {
+            logger.error("can't resolve the server listen addresses: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+        }
+        logger.info("server listen addresses: %s", serverNames);
         return;
     }
 
     @Override
-    public void channelActive(ChannelHandlerContext ctx) throws Exception {                                                                 //a new client has connected
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {dispatch(ctx, () -> clientConnected(ctx), null);}
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {                                                       //collect the frames of the read, they will be dispatched by channelReadComplete()
+        Attribute<Object> batchAttr = ctx.channel().attr(AttributeKey.valueOf("readBatch"));
+        ReadBatch batch = (ReadBatch)batchAttr.get();
+        if (batch == null)                                                                                                                  //the first read of the channel, it runs in the event loop, so there is no race here
+            batchAttr.set(batch = new ReadBatch());
+        if (batch.frames.isEmpty())
+            batch.receivedAt = System.nanoTime();                                                                                           //the command queue wait is measured from here
+        batch.frames.add((ByteBuf)msg);
+        return;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        dispatchBatch(ctx);
+        return;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {dispatch(ctx, () -> errorOccurred(ctx, cause), null);}
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        dispatchBatch(ctx);                                                                                                                 //the commands received before the disconnect are still processed first
+        dispatch(ctx, () -> clientDisconnected(ctx), null);
+        return;
+    }
+
+    public static void bindToMailbox(Channel ch, Executor mailbox) {                                                                        //the channel has been bound to a user, from now on its events will be handled on the user mailbox along with the other user's tasks
+        SerialExecutor channelExecutor = (SerialExecutor)ch.attr(AttributeKey.valueOf("cmdExecutor")).get();
+        if (channelExecutor != null)
+            channelExecutor.setExecutor(mailbox);
+        return;
+    }
+
+    private void dispatchBatch(ChannelHandlerContext ctx) {                                                                                 //runs in the event loop only, so the batch needs no locking
+        ReadBatch batch = (ReadBatch)ctx.channel().attr(AttributeKey.valueOf("readBatch")).get();
+        if (batch == null || batch.frames.isEmpty())
+            return;
+        List<ByteBuf> frames = batch.frames;
+        long receivedAt = batch.receivedAt;
+        batch.frames = new ArrayList<>(4);
+        ServerMetrics.recordReadBatch(frames.size());
+        dispatch(ctx, () -> commandsReceived(ctx, frames, receivedAt), frames);
+        return;
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, ChannelTask task, List<ByteBuf> frames) {                                              //offload a channel event handler to the channel serial executor, so the channel events are handled one by one in order off the event loop
+        SerialExecutor channelExecutor = (SerialExecutor)ctx.channel().attr(AttributeKey.valueOf("cmdExecutor")).get();
+        if (channelExecutor == null) {                                                                                                      //the first event of the channel, the events are fired by the channel event loop only, so there is no race here
+            channelExecutor = new SerialExecutor(commandExecutor, ServerMain.commandExecutor);                                              //the game executor is unbounded, it runs the disconnect when the chat executor is full
+            ctx.channel().attr(AttributeKey.valueOf("cmdExecutor")).set(channelExecutor);
+        }
+        ChannelEvent event = new ChannelEvent(ctx, task, frames);
+        if (frames == null) {                                                                                                               //only the commands are bounded by the executor, the connect, error and disconnect events always run (the disconnect logs the user out)
+            channelExecutor.executeNonDroppable(event);
+            return;
+        }
+        try {
+            channelExecutor.execute(event);
+        } catch (RejectedExecutionException e) {                                                                                            //the event has been dropped, it has released the frames and closed the channel by itself
+            logger.warn("the commands from %s have been rejected by the executor", ctx.channel().attr(AttributeKey.valueOf("chStr")).get());
+        }
+        return;
+    }
+
+    private void clientConnected(ChannelHandlerContext ctx) throws Exception {                                                              //a new client has connected
         InetSocketAddress sa = ((InetSocketAddress)ctx.channel().localAddress());                                                           //server address client connected to
         InetSocketAddress ca = (InetSocketAddress)ctx.channel().remoteAddress();                                                            //client address client connected from
-        String serverFQDN = sa.getAddress().getCanonicalHostName();                                                                         //server FQDN (reverse lookup of sa)
+        String serverFQDN = serverNames.getOrDefault(sa.getAddress(), sa.getAddress().getHostAddress());                                    //server FQDN (precomputed reverse lookup of sa), an unknown address is used as is
 
-        String sockStr = String.format("%s:%d", ca.getHostString(), ca.getPort());                                                          //client socket address as a string
+        String sockStr = ca.getHostString() + ":" + ca.getPort();                                                                           //client socket address as a string
         logger.info("client connected from %s -> %s:%d", sockStr, serverFQDN, sa.getPort());
 
         ctx.channel().attr(AttributeKey.valueOf("sockStr")).set(sockStr);                                                                   //and store it as a channel attribute for login purpose
         ctx.channel().attr(AttributeKey.valueOf("chStr")).set(sockStr);                                                                     //initial chStr = sockStr (will be replaced to user login after successful authorization)
         ctx.channel().attr(AttributeKey.valueOf("chType")).set(User.ChannelType.NOUSER);                                                    //initial channel type set to NOUSER
+        ctx.channel().attr(AttributeKey.valueOf("cmdProc")).set(new CommandProcessor(ctx.channel()));                                       //a command processor serving all the commands from this channel
 
-        String genKey = RandomStringUtils.randomAlphanumeric(ServerMain.hzConfiguration.getInt("ServerSetup.EncryptionKeySize", ServerMain.DEF_ENCRYPTION_KEY_SIZE));  //generate a random string - an encryption key for the future user authentication
+        String genKey = RandomStringUtils.random(ServerConfig.get().encryptionKeySize(), 0, 0, true, true, null, ThreadLocalRandom.current()); //generate a random string - an encryption key for the future user authentication
         ctx.channel().attr(AttributeKey.valueOf("encKey")).set(genKey);                                                                     //store generated encryption key as a channel attribute
         if (!serverFQDN.equals("main.timezero.ru"))                                                                                         //send an encryption key only to the clients connected to NOT main.timezero.ru (they will come up with a <LIST> later)
             ctx.writeAndFlush(String.format("<KEY s =\"%s\"/>", genKey));
         return;
     }
 
-    @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {                                                       //here in msg we have a row 0x00 terminated bytes from a client
-        String rcvd = ((ByteBuf)msg).toString(StandardCharsets.UTF_8);                                                                      //get the context of a received message for the logging and preprocessing purpose
-        rcvd = rcvd.replace("\r", "&#xD;").trim();                                                                                          //replace CR with the corresponding XML code
-
-        String chStr = (String)ctx.channel().attr(AttributeKey.valueOf("chStr")).get();                                                     //login or socket address if a User is still unknown
-        logger.info("received %s from %s", rcvd, chStr);                                                                                    //log the received message
-
-        ReferenceCountUtil.release(msg);                                                                                                    //we don't need the source ByteBuf anymore, releasing it
-        String xmlString = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?><ROOT>" + rcvd + "</ROOT>";                                          //wrap the source message into XML root elements <ROOT>source_message</ROOT>
-        SAXParser parser = tlParser.get();                                                                                                  //parser per each thead is stored in ThreadLocal
-        parser.parse(new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8)), new CommandProcessor(ctx.channel()));            //parse and process the received command by a CommandProcessor instance
+    private void commandsReceived(ChannelHandlerContext ctx, List<ByteBuf> frames, long receivedAt) throws Exception {                      //here we have the frames (0x00 stripped) of a single read, they are processed in order
+        CommandProcessor cmdProc = (CommandProcessor)ctx.channel().attr(AttributeKey.valueOf("cmdProc")).get();
+        cmdProc.setReceivedAt(receivedAt);
+        WriteCoalescer.beginCommand();                                                                                                      //the replies to all the commands of the batch will be flushed at once
+        int i = 0;
+        try {
+            for (; i < frames.size(); i++) {
+                ByteBuf rcvd = frames.get(i);                                                                                               //the message is tokenized right from the received ByteBuf, no copies are made
+                try {
+                    TrafficJournal.inbound(ctx.channel(), rcvd);                                                                            //capture the received message if the traffic journal is on
+                    tlTokenizer.get().tokenize(rcvd, cmdProc);                                                                              //tokenize and process the received command by the channel CommandProcessor
+                } finally {
+                    ReferenceCountUtil.release(rcvd);                                                                                       //we don't need the source ByteBuf anymore, releasing it
+                    RateLimitHandler.commandDone(ctx.channel());                                                                            //let the rate limiter pass the next command from this channel on
+                }
+            }
+        } finally {
+            for (i++; i < frames.size(); i++) {                                                                                             //a malformed frame has broken the batch, the channel is going to be closed
+                ReferenceCountUtil.release(frames.get(i));
+                RateLimitHandler.commandDone(ctx.channel());
+            }
+            WriteCoalescer.endCommand();
+        }
         return;
     }
 
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    private void errorOccurred(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         String chStr = (String) ctx.channel().attr(AttributeKey.valueOf("chStr")).get();                                                    //set sender from string - login or socket address if a User is unknown
 
         if (cause instanceof ReadTimeoutException) {                                                                                        //read timeout has happened
@@ -90,13 +230,13 @@ public class NetInHandlerMain extends ChannelInboundHandlerAdapter {
         return;
     }
 
-    @Override
-    public void channelInactive(ChannelHandlerContext ctx) throws Exception {                                                               //client channel has been disconnected, channel become inactive (closed)
+    private void clientDisconnected(ChannelHandlerContext ctx) throws Exception {                                                           //client channel has been disconnected, channel become inactive (closed)
         String sockStr = (String) ctx.channel().attr(AttributeKey.valueOf("sockStr")).get();                                                //set sender from string - login or socket address if a User is unknown
         String userStr = (String) ctx.channel().attr(AttributeKey.valueOf("chStr")).get();                                                  //set sender from string - login or socket address if a User is unknown
         String chType = ((User.ChannelType)ctx.channel().attr(AttributeKey.valueOf("chType")).get()).name();                                //get Channel type (Game, Chat)
         logger.info("channel %s %s %s disconnected", sockStr, chType, chType.equals(User.ChannelType.NOUSER.name()) ? "" :  userStr);
         UserManager.logoutUser(ctx.channel());                                                                                              //do user logout procedures
+        TrafficJournal.sessionClosed(ctx.channel());
         return;
     }
 }
@@ -1,31 +1,64 @@
 package ru.heckzero.server.net;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
-import io.netty.util.AttributeKey;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Sharable
 public class NetOutHandler extends MessageToByteEncoder<String> {                                                                           //the outbound handler has the two primary purposes
-    private static final Logger logger = LogManager.getFormatterLogger();                                                                   //1)log out the outbound message
+    private static final Logger logger = LogManager.getFormatterLogger();                                                                   //1)capture the outbound message to the traffic journal
                                                                                                                                             //2)add 0x00 byte the end of the outbound message to conform flash XML socket requests
+    private static final List<String> STATIC_REPLIES = List.of(                                                                             //constant replies which are sent as is, they are encoded only once at the startup
+            "<OKGO/>", "<ERRGO />", "<ERRGO code=\"1\"/>", "<ERRGO code=\"20\"/>",
+            "<BK code=\"0\"/>", "<BK code=\"1\"/>", "<BK code=\"4\"/>", "<BK code=\"8\"/>", "<BK code=\"9\"/>", "<BK code=\"29\"/>", "<BK code=\"30\"/>", "<BK login_cell=\"\"/>",
+            "<PR err=\"1\"/>", "<PR err=\"5\"/>", "<PR a1=\"0\" a2=\"0\"/>",
+            "<MR code=\"0\"/>", "<MR code=\"1\"/>", "<MR code=\"13\"/>", "<MR code=\"14\"/>", "<MR code=\"15\"/>", "<MR code=\"19\"/>",
+            "<TRANSFER />", "<TRANSFER err=\"1\"/>", "<TRANSFER err=\"2\"/>", "<TRANSFER err=\"3\"/>", "<TRANSFER err=\"4\"/>", "<TRANSFER err=\"5\"/>",
+            "<EX />", "<EX err=\"1\"/>", "<PT err=\"1\"/>", "<MYPARAM img=\"\"/>", "<CHAT/>");
+    private static final Map<String, ByteBuf> staticReplies = new HashMap<>();                                                              //pre-encoded, 0x00 terminated, read-only and unreleasable buffers shared by all the channels
+
+    static {
+        for (String reply : STATIC_REPLIES) {
+            ByteBuf buf = Unpooled.directBuffer(ByteBufUtil.utf8Bytes(reply) + 1);
+            ByteBufUtil.writeUtf8(buf, reply);
+            buf.writeZero(1);
+            staticReplies.put(reply, Unpooled.unreleasableBuffer(buf.asReadOnly()));
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {                                     //a constant reply is written as a duplicate of its pre-encoded buffer, so no encoding is made at all
+        ByteBuf staticReply = msg instanceof String ? staticReplies.get(msg) : null;
+        if (staticReply == null) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        TrafficJournal.outbound(ctx.channel(), (String)msg);
+        ctx.write(staticReply.duplicate(), promise);                                                                                        //a duplicate has its own indexes, the content is shared
+        return;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, String msg, ByteBuf out) throws Exception {
-        String chStr = (String) ctx.channel().attr(AttributeKey.valueOf("chStr")).get();                                                    //User login or socket address if a User is unknown
-        logger.info("sending %s to %s", msg, chStr);                                                                                        //log the outbound message
+        TrafficJournal.outbound(ctx.channel(), msg);                                                                                        //capture the outbound message if the traffic journal is on
 
-        out.writeCharSequence(msg, Charset.defaultCharset());                                                                               //write the source message to a allocated ByteBuf
+        ByteBufUtil.writeUtf8(out, msg);                                                                                                    //write the source message to a allocated ByteBuf, the client always expects UTF-8
         out.writeZero(1);                                                                                                                   //add a terminating 0x00 byte to the end of the ByteBuf
         return;
     }
 
     @Override
-    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, String msg, boolean preferDirect) throws Exception {                        //allocate ByteBuff for the outgoing message with a capacity enough to hold one additional byte for the null terminator
-        return super.allocateBuffer(ctx, msg, preferDirect).capacity(msg.length() + 1);
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, String msg, boolean preferDirect) throws Exception {                        //allocate a pooled direct ByteBuf of the exact size of the UTF-8 encoded message plus one byte for the null terminator
+        return ctx.alloc().ioBuffer(ByteBufUtil.utf8Bytes(msg) + 1);
     }
 }
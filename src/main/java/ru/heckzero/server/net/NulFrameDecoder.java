@@ -0,0 +1,48 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ByteProcessor;
+
+import java.util.List;
+
+public class NulFrameDecoder extends ByteToMessageDecoder {                                                                                 //splits the inbound bytes into the 0x00 terminated Flash XML socket messages, a frame is a retained slice of the received buffer, no bytes are copied
+    private final int maxFrameLength;
+    private boolean discarding;                                                                                                             //a too long frame is being skipped up to its terminator
+
+    public NulFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+        return;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {                                       //all the frames of a read are decoded at once, the channelReadComplete() that follows them lets the next handlers batch them
+        int nul;
+        while ((nul = in.forEachByte(ByteProcessor.FIND_NUL)) != -1) {
+            int len = nul - in.readerIndex();
+            if (discarding) {                                                                                                               //the rest of the too long frame
+                discarding = false;
+                in.skipBytes(len + 1);
+                continue;
+            }
+            if (len > maxFrameLength) {
+                in.skipBytes(len + 1);
+                throw new TooLongFrameException(String.format("frame length %d exceeds %d", len, maxFrameLength));
+            }
+            if (len > 0)                                                                                                                    //empty frames carry no commands
+                out.add(in.retainedSlice(in.readerIndex(), len));
+            in.skipBytes(len + 1);
+        }
+        if (in.readableBytes() > maxFrameLength) {                                                                                          //no terminator within the max frame length, skip the bytes received so far and the rest of the frame
+            boolean wasDiscarding = discarding;
+            discarding = true;
+            int len = in.readableBytes();
+            in.skipBytes(len);
+            if (!wasDiscarding)
+                throw new TooLongFrameException(String.format("frame length exceeds %d: %d bytes have been discarded", maxFrameLength, len));
+        }
+        return;
+    }
+}
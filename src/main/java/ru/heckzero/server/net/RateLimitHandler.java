@@ -0,0 +1,218 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.ServerMain;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {                                                                        //per channel command rate limiter, works in the channel event loop in front of the offloaded command processing
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final AttributeKey<RateLimitHandler> RATE_LIMITER = AttributeKey.valueOf("rateLimiter");
+    private static final int DEF_MAX_PENDING_COMMANDS = 16;                                                                                 //max commands passed to the executor and not yet processed, the channel stops reading when it's reached
+    private static final int DEF_MAX_QUEUED_COMMANDS = 512;                                                                                 //max commands held by the limiter while the channel is throttled, the channel is closed if it's exceeded
+    private static final double DEF_RATE = 20.0, DEF_BURST = 40.0;                                                                          //default command class: tokens per second and the bucket size
+
+    private static List<CommandClass> commandClasses = List.of(new CommandClass("default", DEF_RATE, DEF_BURST));                           //the last one is the default class
+    private static Map<String, Integer> commandClassIndex = Map.of();                                                                       //command name -> command class index
+    private static int maxPendingCommands = DEF_MAX_PENDING_COMMANDS, maxQueuedCommands = DEF_MAX_QUEUED_COMMANDS;
+    private static final LongAdder backlogPauses = new LongAdder(), closedChannels = new LongAdder();
+
+    private final double[] tokens;                                                                                                          //token buckets, one per command class
+    private final long[] lastRefill;                                                                                                        //last time (nanos) a bucket has been refilled
+    private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();                                                                           //commands waiting for a token or for the executor backlog to decrease
+    private final AtomicInteger pending = new AtomicInteger();                                                                              //commands passed to the executor and not processed yet, decremented by the executor threads
+    private ChannelHandlerContext ctx;
+    private boolean reading;                                                                                                                //the drain is called by channelRead(), the read will be completed by the decoder
+    private boolean drainScheduled;                                                                                                         //a delayed drain has been scheduled to wait for a token
+    private volatile boolean backlogPaused;                                                                                                 //the drain has stopped because of the executor backlog
+
+    private record CommandClass(String name, double rate, double burst, LongAdder throttled) {
+        private CommandClass(String name, double rate, double burst) {this(name, rate, burst, new LongAdder());}
+    }
+
+    public interface RateLimitMBean {
+        long getThrottledCommands();                                                                                                        //commands delayed because the command class bucket was empty
+        String getThrottledByClass();
+        long getBacklogPauses();                                                                                                            //times a channel has stopped reading because of its executor backlog
+        long getClosedChannels();                                                                                                           //channels closed for flooding the limiter queue
+    }
+
+    private static final class Control implements RateLimitMBean {
+        @Override
+        public long getThrottledCommands() {return commandClasses.stream().mapToLong(c -> c.throttled.sum()).sum();}
+        @Override
+        public String getThrottledByClass() {return commandClasses.stream().map(c -> c.name + "=" + c.throttled.sum()).collect(Collectors.joining(","));}
+        @Override
+        public long getBacklogPauses() {return backlogPauses.sum();}
+        @Override
+        public long getClosedChannels() {return closedChannels.sum();}
+    }
+
+    public static void init() {                                                                                                             //read the command classes from the configuration: <CommandClass rate="" burst="">GETH,MMP</CommandClass>
+        List<CommandClass> classes = new ArrayList<>();
+        Map<String, Integer> index = new HashMap<>();
+        CommandClass defaultClass = new CommandClass("default", DEF_RATE, DEF_BURST);
+        int classesCount = ServerMain.hzConfiguration.configurationsAt("RateLimit.CommandClass").size();
+        for (int i = 0; i < classesCount; i++) {
+            String key = String.format("RateLimit.CommandClass(%d)", i);
+            String name = ServerMain.hzConfiguration.getString(key + "[@name]", "class" + i);
+            CommandClass commandClass = new CommandClass(name, ServerMain.hzConfiguration.getDouble(key + "[@rate]", DEF_RATE), ServerMain.hzConfiguration.getDouble(key + "[@burst]", DEF_BURST));
+            String commands = ServerMain.hzConfiguration.getString(key, StringUtils.EMPTY);
+            if (commands.isBlank()) {                                                                                                       //a class without commands is the default one
+                defaultClass = commandClass;
+                continue;
+            }
+            Arrays.stream(StringUtils.split(commands, ", ")).forEach(c -> index.put(c, classes.size()));
+            classes.add(commandClass);
+        }
+        classes.add(defaultClass);
+        commandClasses = List.copyOf(classes);
+        commandClassIndex = Map.copyOf(index);
+        maxPendingCommands = ServerMain.hzConfiguration.getInt("RateLimit.MaxPendingCommands", DEF_MAX_PENDING_COMMANDS);
+        maxQueuedCommands = ServerMain.hzConfiguration.getInt("RateLimit.MaxQueuedCommands", DEF_MAX_QUEUED_COMMANDS);
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Control(), RateLimitMBean.class), new ObjectName("ru.heckzero.server:type=RateLimit"));
+        } catch (Exception e) {
+            logger.error("can't register rate limit MBean: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+        }
+        logger.info("command rate limits: %s, max pending commands %d", commandClasses.stream().map(c -> String.format("%s %.1f/s burst %.0f", c.name, c.rate, c.burst)).collect(Collectors.joining(", ")), maxPendingCommands);
+        return;
+    }
+
+    public static void commandDone(Channel ch) {                                                                                            //called by an executor thread when a command passed by the limiter has been processed
+        RateLimitHandler limiter = ch.attr(RATE_LIMITER).get();
+        if (limiter == null)
+            return;
+        if (limiter.pending.decrementAndGet() < maxPendingCommands && limiter.backlogPaused)                                                //the channel has been paused because of the backlog, let it go on
+            limiter.ctx.executor().execute(limiter::drain);
+        return;
+    }
+
+    public RateLimitHandler() {
+        int classesCount = commandClasses.size();
+        this.tokens = new double[classesCount];
+        this.lastRefill = new long[classesCount];
+        long now = System.nanoTime();
+        for (int i = 0; i < classesCount; i++) {
+            tokens[i] = commandClasses.get(i).burst;                                                                                        //start with the full buckets
+            lastRefill[i] = now;
+        }
+        return;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        ctx.channel().attr(RATE_LIMITER).set(this);
+        return;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {                                                       //a command frame is queued and passed on when the channel has a token for its class
+        if (queue.size() >= maxQueuedCommands) {                                                                                            //the client keeps sending while being throttled
+            ReferenceCountUtil.release(msg);
+            if (ctx.channel().isActive()) {
+                logger.warn("%s is flooding, %d commands are waiting, closing the channel", ctx.channel().attr(AttributeKey.valueOf("chStr")).get(), queue.size());
+                closedChannels.increment();
+                ctx.close();
+            }
+            return;
+        }
+        queue.add((ByteBuf)msg);
+        reading = true;
+        try {
+            drain();
+        } finally {
+            reading = false;
+        }
+        return;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseQueue();
+        super.channelInactive(ctx);
+        return;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseQueue();
+        return;
+    }
+
+    private void drain() {                                                                                                                  //pass the queued commands on while there are tokens and the executor backlog is low, it runs in the event loop only
+        if (!ctx.channel().isActive()) {
+            releaseQueue();
+            return;
+        }
+        int passed = 0;
+        while (!queue.isEmpty() && pending.get() < maxPendingCommands) {                                                                    //when the backlog is full, commandDone() will resume the drain
+            ByteBuf frame = queue.peek();
+            String command = XmlTokenizer.peekElementName(frame);
+            int classIdx = command != null ? commandClassIndex.getOrDefault(command, commandClasses.size() - 1) : commandClasses.size() - 1;
+            long waitNanos = acquire(classIdx);
+            if (waitNanos > 0) {                                                                                                            //no token, wait for it with the channel reading paused
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    commandClasses.get(classIdx).throttled.increment();
+                    logger.debug("throttling %s command class %s for %d us", ctx.channel().attr(AttributeKey.valueOf("chStr")).get(), commandClasses.get(classIdx).name, TimeUnit.NANOSECONDS.toMicros(waitNanos));
+                    ctx.executor().schedule(() -> {drainScheduled = false; drain();}, waitNanos, TimeUnit.NANOSECONDS);
+                }
+                break;
+            }
+            queue.poll();
+            pending.incrementAndGet();
+            ctx.fireChannelRead(frame);
+            passed++;
+        }
+        if (passed > 0 && !reading)                                                                                                         //the delayed commands have no read to complete, let the next handlers dispatch their batch now
+            ctx.fireChannelReadComplete();
+
+        boolean wasPaused = backlogPaused;
+        backlogPaused = pending.get() >= maxPendingCommands;
+        if (backlogPaused && !wasPaused)
+            backlogPauses.increment();
+        boolean canRead = queue.isEmpty() && !backlogPaused;
+        if (ctx.channel().config().isAutoRead() != canRead)
+            ctx.channel().config().setAutoRead(canRead);
+        if (backlogPaused && pending.get() < maxPendingCommands)                                                                            //the executor has caught up meanwhile and might have missed the flag
+            ctx.executor().execute(this::drain);
+        return;
+    }
+
+    private long acquire(int classIdx) {                                                                                                    //take a token from the bucket, return 0 on success or nanos to wait for the next token
+        CommandClass commandClass = commandClasses.get(classIdx);
+        long now = System.nanoTime();
+        tokens[classIdx] = Math.min(commandClass.burst, tokens[classIdx] + (now - lastRefill[classIdx]) * commandClass.rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill[classIdx] = now;
+        if (tokens[classIdx] >= 1.0) {
+            tokens[classIdx] -= 1.0;
+            return 0;
+        }
+        return Math.max(1L, (long)((1.0 - tokens[classIdx]) * TimeUnit.SECONDS.toNanos(1) / commandClass.rate));
+    }
+
+    private void releaseQueue() {
+        ByteBuf frame;
+        while ((frame = queue.poll()) != null)
+            frame.release();
+        return;
+    }
+}
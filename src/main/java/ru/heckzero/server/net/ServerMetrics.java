@@ -0,0 +1,253 @@
+package ru.heckzero.server.net;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.ServerMain;
+import ru.heckzero.server.user.User;
+import ru.heckzero.server.user.UserManager;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+public class ServerMetrics {                                                                                                                //per command queue wait, handler time and response size histograms along with the channel counts and the executor queues, exposed via JMX and the local HTTP endpoint
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);                                                                    //the histograms are allocated for the whole range up front and the values are clamped to it, so the recording never allocates
+    private static final long MAX_BYTES = 16L * 1024 * 1024;
+    private static final long MAX_BATCH = 1024;                                                                                             //frames of a single read
+    private static final int DIGITS = 2;                                                                                                    //significant value digits, 1% precision is enough here and keeps the histograms small
+    private static final double [] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String [] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};                                                             //PERCENTILES as the quantile labels
+    private static final int TOP_PENDING_CHANNELS = 20;                                                                                     //channels having the most bytes pending reported by the HTTP endpoint
+
+    private static volatile boolean enabled = false;
+    private static final Map<String, CommandStats> commands = new ConcurrentSkipListMap<>();                                                //command name (<CHTYPE>_<COMMAND>) -> its metrics, registered once by the CommandProcessor dispatch table
+    private static final Recorder readBatch = new Recorder(MAX_BATCH, DIGITS);                                                              //frames received by a single read and handed to the executor as one task
+    private static final Histogram totalReadBatch = new Histogram(MAX_BATCH, DIGITS);
+    private static final Map<String, ExecutorStats> executors = new ConcurrentSkipListMap<>();                                              //bulkhead name -> its executor gauges
+
+    private static final class ExecutorStats {
+        private final ThreadPoolExecutor executor;
+        private final LongAdder rejected = new LongAdder();                                                                                 //tasks rejected because the queue was full, their channels have been disconnected
+
+        private ExecutorStats(ThreadPoolExecutor executor) {
+            this.executor = executor;
+            RejectedExecutionHandler handler = executor.getRejectedExecutionHandler();
+            executor.setRejectedExecutionHandler((r, e) -> {                                                                                //count the rejections and let the original handler do its job
+                if (!e.isShutdown())
+                    rejected.increment();
+                handler.rejectedExecution(r, e);
+            });
+            return;
+        }
+
+        @Override
+        public String toString() {return String.format("queued=%d active=%d/%d completed=%d rejected=%d", executor.getQueue().size(), executor.getActiveCount(), executor.getMaximumPoolSize(), executor.getCompletedTaskCount(), rejected.sum());}
+    }
+
+    public static final class CommandStats {
+        private final Recorder queueWait = new Recorder(MAX_MICROS, DIGITS);                                                                //time (us) from receiving the command to starting its handler
+        private final Recorder handlerTime = new Recorder(MAX_MICROS, DIGITS);                                                              //time (us) spent in the handler
+        private final Recorder responseBytes = new Recorder(MAX_BYTES, DIGITS);                                                             //bytes written by the handler to all the channels
+        private final Histogram totalQueueWait = new Histogram(MAX_MICROS, DIGITS);                                                         //all the values since the start (or reset), accumulated by the readers only
+        private final Histogram totalHandlerTime = new Histogram(MAX_MICROS, DIGITS);
+        private final Histogram totalResponseBytes = new Histogram(MAX_BYTES, DIGITS);
+
+        private CommandStats() { }
+
+        public void record(long receivedAt, long started, long finished, long bytes) {                                                      //nanoTime() values, receivedAt = 0 - the queue wait is unknown
+            if (!enabled)
+                return;
+            if (receivedAt != 0)
+                queueWait.recordValue(clamp((started - receivedAt) / 1000, MAX_MICROS));
+            handlerTime.recordValue(clamp((finished - started) / 1000, MAX_MICROS));
+            responseBytes.recordValue(clamp(bytes, MAX_BYTES));
+            return;
+        }
+
+        private synchronized void collect() {                                                                                               //move the recorded values to the total histograms
+            totalQueueWait.add(queueWait.getIntervalHistogram());
+            totalHandlerTime.add(handlerTime.getIntervalHistogram());
+            totalResponseBytes.add(responseBytes.getIntervalHistogram());
+            return;
+        }
+
+        private synchronized void reset() {
+            collect();
+            totalQueueWait.reset();
+            totalHandlerTime.reset();
+            totalResponseBytes.reset();
+            return;
+        }
+    }
+
+    private static final class Control implements ServerMetricsMBean {
+        @Override
+        public boolean isEnabled() {return enabled;}
+        @Override
+        public void setEnabled(boolean enabled) {ServerMetrics.enabled = enabled; logger.info("command metrics have been turned %s", enabled ? "on" : "off");}
+        @Override
+        public int getNoUserChannels() {return channelCounts().get(User.ChannelType.NOUSER);}
+        @Override
+        public int getGameChannels() {return channelCounts().get(User.ChannelType.GAME);}
+        @Override
+        public int getChatChannels() {return channelCounts().get(User.ChannelType.CHAT);}
+        @Override
+        public String[] getCommandStats() {return ServerMetrics.getCommandStats();}
+        @Override
+        public String[] getExecutorStats() {return ServerMetrics.getExecutorStats();}
+        @Override
+        public String getReadBatchStats() {return readBatchStats(h -> String.format("count=%d frames=%s", h.getTotalCount(), percentiles(h)));}
+        @Override
+        public String[] getPendingBytes() {return pendingChannels().stream().map(p -> String.format("%s pending=%d writable=%b", p.name, p.bytes, p.writable)).toArray(String[]::new);}
+        @Override
+        public long getDroppedMessages() {return WriteCoalescer.getDropped();}
+        @Override
+        public long getSlowConsumersDisconnected() {return SlowConsumerHandler.getDisconnected();}
+        @Override
+        public String getMetricsText() {return ServerMetrics.getMetricsText();}
+        @Override
+        public void reset() {commands.values().forEach(CommandStats::reset); readBatchStats(h -> {h.reset(); return null;}); logger.info("command metrics have been reset");}
+    }
+
+    private ServerMetrics() { }
+
+    public static void init() {                                                                                                             //read the metrics settings and register the JMX view
+        enabled = ServerMain.hzConfiguration.getBoolean("Metrics.Enabled", false);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Control(), ServerMetricsMBean.class), new ObjectName("ru.heckzero.server:type=ServerMetrics"));
+        } catch (Exception e) {
+            logger.error("can't register server metrics MBean: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+        }
+        logger.info("command metrics are %s, %d commands registered", enabled ? "on" : "off", commands.size());
+        return;
+    }
+
+    public static boolean isEnabled() {return enabled;}
+
+    public static CommandStats register(String command) {return commands.computeIfAbsent(command, k -> new CommandStats());}                //called once per a command handler when the dispatch table is being built
+
+    public static void recordReadBatch(int frames) {
+        if (enabled)
+            readBatch.recordValue(clamp(frames, MAX_BATCH));
+        return;
+    }
+
+    private static <T> T readBatchStats(Function<Histogram, T> reader) {                                                                    //move the recorded batch sizes to the total histogram and read it
+        synchronized (totalReadBatch) {
+            totalReadBatch.add(readBatch.getIntervalHistogram());
+            return reader.apply(totalReadBatch);
+        }
+    }
+
+    public static void registerExecutor(String name, Executor executor) {                                                                   //report the queue depth and the rejections of a bulkhead executor, the virtual thread executor has no queue to report
+        if (executor instanceof ThreadPoolExecutor tpe)
+            executors.put(name, new ExecutorStats(tpe));
+        return;
+    }
+
+    public static Map<User.ChannelType, Integer> channelCounts() {                                                                          //the connected channels by their type, counted on demand, so connecting and logging in cost nothing
+        Map<User.ChannelType, Integer> counts = new EnumMap<>(User.ChannelType.class);
+        for (User.ChannelType chType : User.ChannelType.values())
+            counts.put(chType, 0);
+        for (Channel ch : ServerMain.clientChannels) {
+            User.ChannelType chType = (User.ChannelType)ch.attr(AttributeKey.valueOf("chType")).get();
+            counts.merge(chType != null ? chType : User.ChannelType.NOUSER, 1, Integer::sum);                                               //the channel has connected but its channelActive event hasn't been processed yet
+        }
+        return counts;
+    }
+
+    private record PendingChannel(String name, long bytes, boolean writable) { }
+
+    private static List<PendingChannel> pendingChannels() {                                                                                 //the channels having bytes pending, the most congested ones first
+        List<PendingChannel> pending = new ArrayList<>();
+        for (Channel ch : ServerMain.clientChannels) {
+            long bytes = SlowConsumerHandler.pendingBytes(ch);
+            if (bytes > 0)
+                pending.add(new PendingChannel(String.valueOf(ch.attr(AttributeKey.valueOf("chStr")).get()), bytes, ch.isWritable()));
+        }
+        pending.sort(Comparator.comparingLong(PendingChannel::bytes).reversed());
+        return pending;
+    }
+
+    public static String[] getCommandStats() {
+        return commands.entrySet().stream().map(e -> {
+            CommandStats cs = e.getValue();
+            cs.collect();
+            synchronized (cs) {
+                return String.format("%s count=%d wait_us=%s handler_us=%s bytes=%s", e.getKey(), cs.totalHandlerTime.getTotalCount(), percentiles(cs.totalQueueWait), percentiles(cs.totalHandlerTime), percentiles(cs.totalResponseBytes));
+            }
+        }).toArray(String[]::new);
+    }
+
+    public static String[] getExecutorStats() {return executors.entrySet().stream().map(e -> e.getKey() + " " + e.getValue()).toArray(String[]::new);}
+
+    public static String getMetricsText() {                                                                                                 //the metrics in the Prometheus text exposition format
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE hz_channels gauge\n");
+        channelCounts().forEach((chType, count) -> sb.append("hz_channels{type=\"").append(chType).append("\"} ").append(count).append('\n'));
+        List<PendingChannel> pending = pendingChannels();
+        sb.append("# TYPE hz_channels_pending_bytes gauge\nhz_channels_pending_bytes ").append(pending.stream().mapToLong(PendingChannel::bytes).sum()).append('\n');
+        sb.append("# TYPE hz_channels_unwritable gauge\nhz_channels_unwritable ").append(pending.stream().filter(p -> !p.writable).count()).append('\n');
+        sb.append("# TYPE hz_channel_pending_bytes gauge\n");
+        pending.stream().limit(TOP_PENDING_CHANNELS).forEach(p -> sb.append("hz_channel_pending_bytes{channel=\"").append(p.name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"} ").append(p.bytes).append('\n'));
+        sb.append("# TYPE hz_users gauge\n");
+        Arrays.stream(UserManager.UserType.values()).forEach(type -> sb.append("hz_users{type=\"").append(type).append("\"} ").append(UserManager.countUsers(type)).append('\n'));
+        sb.append("# TYPE hz_messages_dropped counter\nhz_messages_dropped ").append(WriteCoalescer.getDropped()).append('\n');
+        sb.append("# TYPE hz_slow_consumers_disconnected counter\nhz_slow_consumers_disconnected ").append(SlowConsumerHandler.getDisconnected()).append('\n');
+        sb.append("# TYPE hz_executor_queued gauge\n# TYPE hz_executor_active gauge\n# TYPE hz_executor_completed counter\n# TYPE hz_executor_rejected counter\n");
+        executors.forEach((name, es) -> {                                                                                                   //a queued task is a channel or a mailbox having commands to run
+            sb.append("hz_executor_queued{executor=\"").append(name).append("\"} ").append(es.executor.getQueue().size()).append('\n');
+            sb.append("hz_executor_active{executor=\"").append(name).append("\"} ").append(es.executor.getActiveCount()).append('\n');
+            sb.append("hz_executor_completed{executor=\"").append(name).append("\"} ").append(es.executor.getCompletedTaskCount()).append('\n');
+            sb.append("hz_executor_rejected{executor=\"").append(name).append("\"} ").append(es.rejected.sum()).append('\n');
+        });
+        sb.append("# TYPE hz_read_batch_frames summary\n");
+        readBatchStats(h -> {summary(sb, "hz_read_batch_frames", null, h); return null;});
+        sb.append("# TYPE hz_metrics_enabled gauge\nhz_metrics_enabled ").append(enabled ? 1 : 0).append('\n');
+        sb.append("# TYPE hz_command_queue_wait_us summary\n# TYPE hz_command_handler_us summary\n# TYPE hz_command_response_bytes summary\n");
+        commands.forEach((command, cs) -> {
+            cs.collect();
+            synchronized (cs) {
+                if (cs.totalHandlerTime.getTotalCount() == 0)                                                                               //skip the commands that haven't been received yet
+                    return;
+                summary(sb, "hz_command_queue_wait_us", command, cs.totalQueueWait);
+                summary(sb, "hz_command_handler_us", command, cs.totalHandlerTime);
+                summary(sb, "hz_command_response_bytes", command, cs.totalResponseBytes);
+            }
+        });
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, String command, Histogram h) {                                               //command = null - the summary has no command label
+        String label = command != null ? "{command=\"" + command + "\"}" : "";
+        String quantileLabel = command != null ? "{command=\"" + command + "\",quantile=\"" : "{quantile=\"";
+        for (int i = 0; i < PERCENTILES.length; i++)
+            sb.append(name).append(quantileLabel).append(QUANTILES[i]).append("\"} ").append(h.getValueAtPercentile(PERCENTILES[i])).append('\n');
+        sb.append(name).append(quantileLabel).append("1.0\"} ").append(h.getMaxValue()).append('\n');
+        sb.append(name).append("_count").append(label).append(' ').append(h.getTotalCount()).append('\n');
+        sb.append(name).append("_sum").append(label).append(' ').append((long)(h.getMean() * h.getTotalCount())).append('\n');
+        return;
+    }
+
+    private static String percentiles(Histogram h) {return String.format("p50:%d/p90:%d/p99:%d/p99.9:%d/max:%d", h.getValueAtPercentile(50.0), h.getValueAtPercentile(90.0), h.getValueAtPercentile(99.0), h.getValueAtPercentile(99.9), h.getMaxValue());}
+
+    private static long clamp(long value, long max) {return Math.min(Math.max(value, 0L), max);}
+}
@@ -0,0 +1,20 @@
+package ru.heckzero.server.net;
+
+public interface ServerMetricsMBean {                                                                                                       //runtime view of the server metrics via JMX
+    boolean isEnabled();
+    void setEnabled(boolean enabled);                                                                                                       //the channel counts are available even if the command metrics are off
+
+    int getNoUserChannels();                                                                                                                //connected channels that haven't logged in yet
+    int getGameChannels();
+    int getChatChannels();
+
+    String[] getCommandStats();                                                                                                             //a line per command: count, queue wait and handler time percentiles (us), response size percentiles (bytes)
+    String[] getExecutorStats();                                                                                                            //a line per bulkhead executor: queued tasks, active threads, completed and rejected tasks
+    String getReadBatchStats();                                                                                                             //frames received by a single read and processed as one task: count of the reads and the batch size percentiles
+    String[] getPendingBytes();                                                                                                             //a line per channel having bytes pending: bytes not sent to the socket yet and whether the channel is writable
+    long getDroppedMessages();                                                                                                              //non-essential messages dropped because their channels were unwritable
+    long getSlowConsumersDisconnected();                                                                                                    //clients disconnected for exceeding the pending bytes or the unwritable time budget
+    String getMetricsText();                                                                                                                //the same text the HTTP endpoint serves
+
+    void reset();                                                                                                                           //forget the recorded command metrics
+}
@@ -0,0 +1,105 @@
+package ru.heckzero.server.net;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.ServerMain;
+import ru.heckzero.server.user.User;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SlowConsumerHandler extends ChannelInboundHandlerAdapter {                                                                     //disconnects a client that doesn't read its messages: its channel has stayed unwritable for too long or has too many bytes pending
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int DEF_LOW_WATER_MARK = 32 * 1024;                                                                                //the channel becomes writable again when the pending bytes drop below it
+    private static final int DEF_HIGH_WATER_MARK = 128 * 1024;                                                                              //the channel becomes unwritable when the pending bytes exceed it, the non-essential messages are dropped from then on
+    private static final long DEF_MAX_PENDING_BYTES = 2L * 1024 * 1024;                                                                     //the client is disconnected when its channel has more bytes pending
+    private static final int DEF_MAX_UNWRITABLE_TIME = 15;                                                                                  //seconds the channel may stay unwritable before the client is disconnected
+    private static final long CHECK_INTERVAL_MILLIS = 500;                                                                                  //the budget checks run only while the channel is unwritable
+
+    private static WriteBufferWaterMark waterMark = new WriteBufferWaterMark(DEF_LOW_WATER_MARK, DEF_HIGH_WATER_MARK);
+    private static long maxPendingBytes = DEF_MAX_PENDING_BYTES, maxUnwritableNanos = TimeUnit.SECONDS.toNanos(DEF_MAX_UNWRITABLE_TIME);
+    private static final LongAdder disconnected = new LongAdder();
+
+    private long unwritableSince;                                                                                                           //nanoTime() the channel has become unwritable at
+    private ScheduledFuture<?> checkTask;                                                                                                   //the periodic budget check, it's null while the channel is writable
+
+    public static void init() {                                                                                                             //read the watermarks and the budgets from the configuration
+        int low = ServerMain.hzConfiguration.getInt("SlowConsumer.LowWaterMark", DEF_LOW_WATER_MARK);
+        int high = ServerMain.hzConfiguration.getInt("SlowConsumer.HighWaterMark", DEF_HIGH_WATER_MARK);
+        if (low > high) {
+            logger.warn("SlowConsumer.LowWaterMark %d is greater than HighWaterMark %d, using the defaults", low, high);
+            low = DEF_LOW_WATER_MARK;
+            high = DEF_HIGH_WATER_MARK;
+        }
+        waterMark = new WriteBufferWaterMark(low, high);
+        maxPendingBytes = ServerMain.hzConfiguration.getLong("SlowConsumer.MaxPendingBytes", DEF_MAX_PENDING_BYTES);
+        maxUnwritableNanos = TimeUnit.SECONDS.toNanos(ServerMain.hzConfiguration.getInt("SlowConsumer.MaxUnwritableTime", DEF_MAX_UNWRITABLE_TIME));
+        logger.info("slow consumer limits: write buffer water marks %d/%d bytes, max pending bytes %d, max unwritable time %d s", low, high, maxPendingBytes, TimeUnit.NANOSECONDS.toSeconds(maxUnwritableNanos));
+        return;
+    }
+
+    public static WriteBufferWaterMark getWaterMark() {return waterMark;}
+
+    public static long getDisconnected() {return disconnected.sum();}
+
+    public static long pendingBytes(Channel ch) {                                                                                           //bytes written to the channel and not sent to the socket yet
+        ChannelOutboundBuffer buf = ch.unsafe().outboundBuffer();
+        return buf != null ? buf.totalPendingWriteBytes() : 0L;                                                                             //the buffer is null once the channel has been closed
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable() && checkTask == null) {                                                                             //start checking the budgets until the channel is writable again
+            unwritableSince = System.nanoTime();
+            checkTask = ctx.executor().scheduleAtFixedRate(() -> check(ctx), CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            logger.debug("%s has become unwritable, %d bytes pending", ctx.channel().attr(AttributeKey.valueOf("chStr")).get(), pendingBytes(ctx.channel()));
+            check(ctx);
+        } else if (ctx.channel().isWritable()) {
+            cancelCheck();
+            User user = (User)ctx.channel().attr(AttributeKey.valueOf("user")).get();                                                       //null until the channel has been logged in
+            if (user != null && ctx.channel().attr(AttributeKey.valueOf("chType")).get() == User.ChannelType.CHAT)                          //the presence updates dropped while the chat channel was congested are replaced by a fresh room list
+                user.chatWritable();
+        }
+        super.channelWritabilityChanged(ctx);
+        return;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cancelCheck();
+        super.channelInactive(ctx);
+        return;
+    }
+
+    private void check(ChannelHandlerContext ctx) {                                                                                         //runs in the channel event loop
+        Channel ch = ctx.channel();
+        if (ch.isWritable() || !ch.isActive()) {
+            cancelCheck();
+            return;
+        }
+        long pending = pendingBytes(ch);
+        long unwritableNanos = System.nanoTime() - unwritableSince;
+        if (pending <= maxPendingBytes && unwritableNanos <= maxUnwritableNanos)
+            return;
+        logger.warn("%s is a slow consumer, %d bytes pending, unwritable for %d ms, closing the channel", ch.attr(AttributeKey.valueOf("chStr")).get(), pending, TimeUnit.NANOSECONDS.toMillis(unwritableNanos));
+        disconnected.increment();
+        cancelCheck();
+        ctx.close();                                                                                                                        //the pending writes are failed and released by the close
+        return;
+    }
+
+    private void cancelCheck() {
+        if (checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+        return;
+    }
+}
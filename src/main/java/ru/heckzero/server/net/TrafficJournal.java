@@ -0,0 +1,336 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.ServerMain;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+public class TrafficJournal {                                                                                                               //captures the client traffic into a binary journal off the hot path, use main() to dump a journal in a human-readable form
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final byte[] MAGIC = {'H', 'Z', 'J', '1'};                                                                               //journal file header
+    private static final byte REC_OPEN = 1, REC_USER = 2, REC_IN = 3, REC_OUT = 4, REC_CLOSE = 5;                                           //record types: session opened (socket address), session bound to a user (login), inbound and outbound messages, session closed
+    private static final int DEF_RING_SIZE = 65536;                                                                                         //ring buffer capacity (records), rounded up to a power of 2
+    private static final int DEF_MAX_FILE_SIZE = 64;                                                                                        //journal file size (MB) to roll the file at
+    private static final String DEF_JOURNAL_DIR = "logs/traffic";                                                                           //journal files directory
+    private static final AttributeKey<Integer> SESS_ID = AttributeKey.valueOf("sessId");                                                    //journal session id of the channel
+    private static final AttributeKey<String> SESS_USER = AttributeKey.valueOf("sessUser");                                                 //user login the channel belongs to
+    private static final AttributeKey<Boolean> SESS_SAMPLED = AttributeKey.valueOf("sessSampled");                                          //the sampling decision made once per channel, no session is opened for a channel that isn't sampled
+
+    private static final AtomicInteger sessIdGen = new AtomicInteger();                                                                     //session id generator
+    private static final AtomicInteger sampleGen = new AtomicInteger();                                                                     //counts the channels the sampling decision has been made for
+    private static final AtomicLong recorded = new AtomicLong(), dropped = new AtomicLong();
+    private static volatile boolean enabled = false;                                                                                        //capture is on
+    private static volatile int sampleRate = 1;                                                                                             //capture every sampleRate-th session
+    private static volatile Set<String> users = Set.of(), commands = Set.of();                                                              //capture filters, empty set means no filtering
+    private static Ring ring;
+    private static volatile Thread writer;
+
+    private static final class Record {
+        private final byte type;
+        private final long time = System.currentTimeMillis();
+        private final int sessId;
+        private final byte[] data;
+
+        private Record(byte type, int sessId, byte[] data) {
+            this.type = type;
+            this.sessId = sessId;
+            this.data = data;
+            return;
+        }
+    }
+
+    private static final class Ring {                                                                                                       //a bounded lock-free multi producer single consumer ring buffer, producers never block - a record is dropped if the ring is full
+        private final int mask;
+        private final AtomicReferenceArray<Record> slots;
+        private final AtomicLongArray sequences;                                                                                            //a slot sequence tells whether the slot is free for the producer at position pos (seq == pos) or ready for the consumer (seq == pos + 1)
+        private final AtomicLong tail = new AtomicLong();                                                                                   //next position to produce at
+        private long head;                                                                                                                  //next position to consume from, it's accessed by the writer thread only
+
+        private Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+            this.mask = size - 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++)
+                sequences.set(i, i);
+            return;
+        }
+
+        private boolean offer(Record record) {
+            while (true) {
+                long pos = tail.get();
+                int idx = (int)(pos & mask);
+                long diff = sequences.get(idx) - pos;
+                if (diff < 0)                                                                                                               //the slot hasn't been consumed yet, the ring is full
+                    return false;
+                if (diff == 0 && tail.compareAndSet(pos, pos + 1)) {                                                                        //the slot has been claimed
+                    slots.lazySet(idx, record);
+                    sequences.set(idx, pos + 1);                                                                                            //publish the record to the consumer
+                    return true;
+                }
+            }
+        }
+
+        private Record poll() {
+            int idx = (int)(head & mask);
+            if (sequences.get(idx) != head + 1)                                                                                             //nothing published at this position yet
+                return null;
+            Record record = slots.get(idx);
+            slots.lazySet(idx, null);
+            sequences.set(idx, head + mask + 1);                                                                                            //free the slot for the producer of the next lap
+            head++;
+            return record;
+        }
+    }
+
+    private static final class Control implements TrafficJournalMBean {
+        @Override
+        public boolean isEnabled() {return enabled;}
+        @Override
+        public void setEnabled(boolean enabled) {TrafficJournal.enabled = enabled && writer != null; logger.info("traffic journal has been turned %s", TrafficJournal.enabled ? "on" : "off");}
+        @Override
+        public int getSampleRate() {return sampleRate;}
+        @Override
+        public void setSampleRate(int sampleRate) {TrafficJournal.sampleRate = Math.max(1, sampleRate);}
+        @Override
+        public String getUsers() {return String.join(",", users);}
+        @Override
+        public void setUsers(String users) {TrafficJournal.users = toSet(users, true);}
+        @Override
+        public String getCommands() {return String.join(",", commands);}
+        @Override
+        public void setCommands(String commands) {TrafficJournal.commands = toSet(commands, false);}
+        @Override
+        public long getRecorded() {return recorded.get();}
+        @Override
+        public long getDropped() {return dropped.get();}
+    }
+
+    private TrafficJournal() { }
+
+    public static void init() {                                                                                                             //read the journal settings, start the writer thread and register the JMX control
+        Path dir = Path.of(ServerMain.hzConfiguration.getString("TrafficJournal.Dir", DEF_JOURNAL_DIR));
+        long maxFileSize = ServerMain.hzConfiguration.getLong("TrafficJournal.MaxFileSize", DEF_MAX_FILE_SIZE) * 1024 * 1024;
+        ring = new Ring(ServerMain.hzConfiguration.getInt("TrafficJournal.RingSize", DEF_RING_SIZE));
+        sampleRate = Math.max(1, ServerMain.hzConfiguration.getInt("TrafficJournal.SampleRate", 1));
+        users = toSet(ServerMain.hzConfiguration.getString("TrafficJournal.Users", StringUtils.EMPTY), true);
+        commands = toSet(ServerMain.hzConfiguration.getString("TrafficJournal.Commands", StringUtils.EMPTY), false);
+
+        writer = new Thread(() -> writeLoop(dir, maxFileSize), "traffic-journal");
+        writer.setDaemon(true);
+        writer.start();
+        enabled = ServerMain.hzConfiguration.getBoolean("TrafficJournal.Enabled", false);
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Control(), TrafficJournalMBean.class), new ObjectName("ru.heckzero.server:type=TrafficJournal"));
+        } catch (Exception e) {
+            logger.error("can't register traffic journal MBean: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+        }
+        logger.info("traffic journal is %s, writing to %s, sample rate 1/%d, users filter: %s, commands filter: %s", enabled ? "on" : "off", dir, sampleRate, users, commands);
+        return;
+    }
+
+    public static void stop() {                                                                                                             //stop capturing, let the writer drain the ring and close the journal
+        enabled = false;
+        if (writer == null)
+            return;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return;
+    }
+
+    public static void inbound(Channel ch, ByteBuf msg) {                                                                                   //capture a message received from the client
+        if (!enabled || !isSampled(ch) || (!commands.isEmpty() && !commands.contains(XmlTokenizer.peekElementName(msg))))
+            return;
+        offer(new Record(REC_IN, sessionId(ch), ByteBufUtil.getBytes(msg)));
+        return;
+    }
+
+    public static void outbound(Channel ch, String msg) {                                                                                   //capture a message sent to the client
+        if (!enabled || !isSampled(ch) || (!commands.isEmpty() && !commands.contains(elementName(msg))))
+            return;
+        offer(new Record(REC_OUT, sessionId(ch), msg.getBytes(StandardCharsets.UTF_8)));
+        return;
+    }
+
+    public static void sessionUser(Channel ch, String login) {                                                                              //the channel has been bound to a user
+        ch.attr(SESS_USER).set(login.toLowerCase());
+        if (enabled && isSampled(ch))
+            offer(new Record(REC_USER, sessionId(ch), login.getBytes(StandardCharsets.UTF_8)));
+        return;
+    }
+
+    public static void sessionClosed(Channel ch) {
+        Integer sessId = ch.attr(SESS_ID).get();
+        if (enabled && sessId != null)                                                                                                      //the session has been captured
+            offer(new Record(REC_CLOSE, sessId, new byte[0]));
+        return;
+    }
+
+    private static boolean isSampled(Channel ch) {
+        if (!users.isEmpty() && !users.contains(ch.attr(SESS_USER).get()))
+            return false;
+        Boolean sampled = ch.attr(SESS_SAMPLED).get();
+        if (sampled == null) {                                                                                                              //the first captured message of the channel
+            sampled = sampleRate == 1 || Integer.remainderUnsigned(sampleGen.getAndIncrement(), sampleRate) == 0;
+            Boolean decided = ch.attr(SESS_SAMPLED).setIfAbsent(sampled);                                                                   //another thread has decided meanwhile
+            if (decided != null)
+                sampled = decided;
+        }
+        return sampled;
+    }
+
+    private static int sessionId(Channel ch) {                                                                                              //get the channel session id, a new session is opened on the first captured message
+        Integer sessId = ch.attr(SESS_ID).get();
+        if (sessId != null)
+            return sessId;
+        int newId = sessIdGen.incrementAndGet();
+        if (!ch.attr(SESS_ID).compareAndSet(null, newId))                                                                                   //another thread has opened the session meanwhile
+            return ch.attr(SESS_ID).get();
+        offer(new Record(REC_OPEN, newId, String.valueOf(ch.attr(AttributeKey.valueOf("sockStr")).get()).getBytes(StandardCharsets.UTF_8)));
+        return newId;
+    }
+
+    private static void offer(Record record) {
+        if (!ring.offer(record))
+            dropped.incrementAndGet();
+        return;
+    }
+
+    private static String elementName(String msg) {                                                                                         //get the first element name of an outbound message
+        int start = msg.indexOf('<') + 1, end = start;
+        while (end < msg.length() && " \t/>".indexOf(msg.charAt(end)) == -1)
+            end++;
+        return msg.substring(start, end);
+    }
+
+    private static Set<String> toSet(String list, boolean lowerCase) {
+        return Arrays.stream(StringUtils.split(StringUtils.defaultString(list), ", ")).map(s -> lowerCase ? s.toLowerCase() : s).collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static void writeLoop(Path dir, long maxFileSize) {                                                                             //the writer thread: drain the ring into the journal file, flush when the ring is empty, roll the file when it's too big
+        DataOutputStream out = null;
+        long fileSize = 0;
+        try {
+            Files.createDirectories(dir);
+            while (true) {
+                Record record = ring.poll();
+                if (record == null) {
+                    if (out != null)
+                        out.flush();
+                    if (Thread.currentThread().isInterrupted())                                                                             //stop() has been called and the ring is empty
+                        break;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    continue;
+                }
+                if (out == null || fileSize >= maxFileSize) {
+                    if (out != null)
+                        out.close();
+                    Path file = dir.resolve("traffic-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".hzj");
+                    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536));
+                    out.write(MAGIC);
+                    fileSize = MAGIC.length;
+                    logger.info("traffic journal file %s has been opened", file);
+                }
+                out.writeByte(record.type);
+                out.writeLong(record.time);
+                out.writeInt(record.sessId);
+                out.writeInt(record.data.length);
+                out.write(record.data);
+                fileSize += 17 + record.data.length;
+                recorded.incrementAndGet();
+            }
+        } catch (IOException e) {
+            logger.error("traffic journal writer failed, capture is off: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+            enabled = false;
+            writer = null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {logger.error("can't close the traffic journal: %s", e.getMessage());}
+            }
+        }
+        return;
+    }
+
+    public static void main(String[] args) {                                                                                                //dump journal files as text: TrafficJournal [-u login] file.hzj...
+        String userFilter = null;
+        List<String> files = new ArrayList<>(Arrays.asList(args));
+        if (files.size() > 1 && files.get(0).equals("-u")) {
+            userFilter = files.get(1).toLowerCase();
+            files = files.subList(2, files.size());
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: TrafficJournal [-u login] file.hzj...");
+            return;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        PrintStream ps = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+        Map<Integer, String> sessions = new HashMap<>();                                                                                    //session id -> socket address
+        Map<Integer, String> sessionUsers = new HashMap<>();                                                                                //session id -> user login
+        for (String file : files) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                    System.err.printf("%s is not a traffic journal file%n", file);
+                    continue;
+                }
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {break;}
+                    long time = in.readLong();
+                    int sessId = in.readInt();
+                    String data = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+                    switch (type) {
+                        case REC_OPEN -> sessions.put(sessId, data);
+                        case REC_USER -> sessionUsers.put(sessId, data.toLowerCase());
+                    }
+                    if (userFilter != null && !userFilter.equals(sessionUsers.get(sessId)))
+                        continue;
+                    String direction = switch (type) {
+                        case REC_OPEN -> "OPEN";
+                        case REC_USER -> "USER";
+                        case REC_IN -> "<<";
+                        case REC_OUT -> ">>";
+                        case REC_CLOSE -> "CLOSE";
+                        default -> "?" + type;
+                    };
+                    String sessStr = StringUtils.defaultString(sessions.get(sessId), "?") + (sessionUsers.containsKey(sessId) ? " '" + sessionUsers.get(sessId) + "'" : StringUtils.EMPTY);
+                    ps.printf("%s #%d %s %s %s%n", dateFormat.format(new Date(time)), sessId, sessStr, direction, data);
+                }
+            } catch (IOException e) {
+                System.err.printf("can't read %s: %s%n", file, e.getMessage());
+            }
+        }
+        ps.flush();
+        return;
+    }
+}
@@ -0,0 +1,18 @@
+package ru.heckzero.server.net;
+
+public interface TrafficJournalMBean {                                                                                                      //runtime control of the traffic journal via JMX
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+
+    int getSampleRate();                                                                                                                    //1 - capture every session, N - capture every N-th session
+    void setSampleRate(int sampleRate);
+
+    String getUsers();                                                                                                                      //comma separated logins to capture, empty - capture all the users
+    void setUsers(String users);
+
+    String getCommands();                                                                                                                   //comma separated commands (element names) to capture, empty - capture all the commands
+    void setCommands(String commands);
+
+    long getRecorded();                                                                                                                     //number of records written to the journal
+    long getDropped();                                                                                                                      //number of records dropped because the ring buffer was full
+}
@@ -0,0 +1,73 @@
+package ru.heckzero.server.net;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public enum Transport {                                                                                                                     //netty transport the server channels and event loops are created with
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {return new NioEventLoopGroup(threads, new DefaultThreadFactory(name));}
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {return NioServerSocketChannel.class;}
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {return null;}
+    },
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {return new EpollEventLoopGroup(threads, new DefaultThreadFactory(name));}
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {return EpollServerSocketChannel.class;}
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {return EpollChannelOption.SO_REUSEPORT;}
+    },
+    IO_URING {                                                                                                                              //the incubator transport, the submission and completion queues save a syscall per read and write on Linux 5.9+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {return new IOUringEventLoopGroup(threads, new DefaultThreadFactory(name));}
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {return IOUringServerSocketChannel.class;}
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {return IOUringChannelOption.SO_REUSEPORT;}
+    };
+
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, String name);                                                             //the threads are not pinned to the cores, there is no thread affinity in the JDK, the kernel scheduler spreads them across the cores
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+    public abstract ChannelOption<Boolean> reusePortOption();                                                                               //SO_REUSEPORT letting several listening sockets bind the same port, null - the transport doesn't support it
+
+    public static Transport select(String name) {                                                                                           //auto - the best one available, io_uring falls back to epoll and epoll falls back to nio if the native library can't be loaded or the kernel doesn't support it
+        Transport requested = switch (name.trim().toLowerCase()) {
+            case "nio" -> NIO;
+            case "epoll" -> EPOLL;
+            case "io_uring", "iouring" -> IO_URING;
+            default -> {
+                if (!name.equalsIgnoreCase("auto"))
+                    logger.warn("unknown transport %s, choosing it automatically", name);
+                yield Epoll.isAvailable() ? EPOLL : NIO;
+            }
+        };
+        if (requested == IO_URING && !IOUring.isAvailable()) {
+            logger.warn("io_uring transport is not available: %s, falling back to epoll", IOUring.unavailabilityCause().getMessage());
+            requested = EPOLL;
+        }
+        if (requested == EPOLL && !Epoll.isAvailable()) {
+            logger.warn("epoll transport is not available: %s, falling back to nio", Epoll.unavailabilityCause().getMessage());
+            requested = NIO;
+        }
+        return requested;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.heckzero.server.ServerMain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class WriteCoalescer {                                                                                                               //consolidates flushes, so several messages sent to a channel in a row go out in a single syscall and TCP segment
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final AttributeKey<Boolean> FLUSH_SCHEDULED = AttributeKey.valueOf("flushScheduled");                                    //a delayed flush has already been scheduled for the channel
+    private static final ThreadLocal<CommandScope> tlScope = ThreadLocal.withInitial(CommandScope::new);                                    //channels written to while processing a command in the current thread
+    private static final LongAdder dropped = new LongAdder();                                                                               //non-essential messages dropped because their channels were congested
+    private static final long flushTickMicros = ServerMain.hzConfiguration != null ? ServerMain.hzConfiguration.getLong("ServerSetup.FlushTickMicros", ServerMain.DEF_FLUSH_TICK_MICROS) : ServerMain.DEF_FLUSH_TICK_MICROS;
+
+    private static class CommandScope {
+        private boolean active;                                                                                                             //a command is being processed by the thread
+        private final List<Channel> written = new ArrayList<>();                                                                            //channels having unflushed writes made by this command
+        private long writtenBytes;                                                                                                          //bytes written by the thread while processing the commands, counted when the metrics are on
+    }
+
+    private WriteCoalescer() { }
+
+    public static void beginCommand() {                                                                                                     //all writes made by the thread from now on will be flushed by endCommand()
+        tlScope.get().active = true;
+        return;
+    }
+
+    public static void endCommand() {                                                                                                       //the command has been processed, flush all the channels it has written to
+        CommandScope scope = tlScope.get();
+        scope.active = false;
+        for (int i = 0; i < scope.written.size(); i++)
+            scope.written.get(i).flush();
+        scope.written.clear();
+        return;
+    }
+
+    public static long getWrittenBytes() {return tlScope.get().writtenBytes;}                                                               //the difference of the values taken before and after a command is its response size
+
+    public static void write(Channel ch, Object msg) {                                                                                      //write a message without flushing it, the flush will happen at the end of the command or on the next tick
+        CommandScope scope = tlScope.get();
+        if (scope.active && ServerMetrics.isEnabled())                                                                                      //count the response size before the message is encoded and released
+            scope.writtenBytes += msg instanceof CharSequence cs ? ByteBufUtil.utf8Bytes(cs) : msg instanceof ByteBuf buf ? buf.readableBytes() : 0;
+        ch.write(msg, ch.voidPromise());
+        if (scope.active) {
+            if (!scope.written.contains(ch))                                                                                                //a command writes to a few channels only, so a list is fine here
+                scope.written.add(ch);
+            return;
+        }
+        scheduleFlush(ch);
+        return;
+    }
+
+    public static boolean tryWrite(Channel ch, Object msg) {                                                                                //write a non-essential message unless the channel is unwritable, a slow client loses it instead of growing the outbound buffer
+        if (!ch.isWritable()) {
+            dropped.increment();
+            return false;
+        }
+        write(ch, msg);
+        return true;
+    }
+
+    public static long getDropped() {return dropped.sum();}
+
+    public static void flushNow(Channel ch) {                                                                                               //flush the channel immediately, used for latency-critical replies and before closing the channel
+        ch.flush();
+        return;
+    }
+
+    private static void scheduleFlush(Channel ch) {                                                                                         //schedule a single flush per channel within a tick, messages written by other threads meanwhile will be sent by that flush
+        Attribute<Boolean> flushScheduled = ch.attr(FLUSH_SCHEDULED);
+        if (flushScheduled.getAndSet(Boolean.TRUE) == Boolean.TRUE)
+            return;
+        Runnable flushTask = () -> {
+            flushScheduled.set(Boolean.FALSE);                                                                                              //reset the flag before flushing, so a message written during the flush will schedule a new one
+            ch.flush();
+        };
+        if (flushTickMicros > 0)
+            ch.eventLoop().schedule(flushTask, flushTickMicros, TimeUnit.MICROSECONDS);
+        else
+            ch.eventLoop().execute(flushTask);
+        logger.trace("flush scheduled for channel %s", ch);
+        return;
+    }
+}
@@ -0,0 +1,147 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.commons.lang3.StringUtils;
+import org.xml.sax.Attributes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class XmlAttributes implements Attributes {                                                                                          //a reusable allocation-free attribute view over the source ByteBuf, values are decoded only on demand
+    private static final int DEF_CAPACITY = 16;                                                                                             //initial number of attributes the view can hold
+
+    private ByteBuf buf;                                                                                                                    //the buffer the attributes are located in
+    private int length;                                                                                                                     //number of attributes of the current element
+    private int[] nameStart = new int[DEF_CAPACITY], nameLen = new int[DEF_CAPACITY];                                                       //attribute names offsets in buf
+    private int[] valueStart = new int[DEF_CAPACITY], valueLen = new int[DEF_CAPACITY];                                                     //attribute values offsets in buf
+    private boolean[] normalize = new boolean[DEF_CAPACITY];                                                                                //the value contains entities or whitespaces to be normalized
+
+    static boolean equalsAscii(ByteBuf buf, int start, int len, String s) {                                                                 //compare bytes in buf with an ASCII string without decoding them
+        if (s.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (buf.getByte(start + i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    XmlAttributes() { }
+
+    void reset(ByteBuf buf) {
+        this.buf = buf;
+        this.length = 0;
+        return;
+    }
+
+    void add(int nStart, int nLen, int vStart, int vLen, boolean needNormalize) {
+        if (length == nameStart.length) {                                                                                                   //grow the arrays, this will happen only on elements having lots of attributes
+            int newCapacity = length * 2;
+            nameStart = Arrays.copyOf(nameStart, newCapacity);
+            nameLen = Arrays.copyOf(nameLen, newCapacity);
+            valueStart = Arrays.copyOf(valueStart, newCapacity);
+            valueLen = Arrays.copyOf(valueLen, newCapacity);
+            normalize = Arrays.copyOf(normalize, newCapacity);
+        }
+        nameStart[length] = nStart;
+        nameLen[length] = nLen;
+        valueStart[length] = vStart;
+        valueLen[length] = vLen;
+        normalize[length] = needNormalize;
+        length++;
+        return;
+    }
+
+    @Override
+    public int getLength() {return length;}
+
+    @Override
+    public String getURI(int index) {return index >= 0 && index < length ? StringUtils.EMPTY : null;}
+
+    @Override
+    public String getLocalName(int index) {return getQName(index);}
+
+    @Override
+    public String getQName(int index) {return index >= 0 && index < length ? buf.toString(nameStart[index], nameLen[index], StandardCharsets.UTF_8) : null;}
+
+    @Override
+    public String getType(int index) {return index >= 0 && index < length ? "CDATA" : null;}
+
+    @Override
+    public String getValue(int index) {                                                                                                     //decode an attribute value, the only place where a String is allocated
+        if (index < 0 || index >= length)
+            return null;
+        String value = buf.toString(valueStart[index], valueLen[index], StandardCharsets.UTF_8);
+        return normalize[index] ? normalizeValue(value) : value;
+    }
+
+    @Override
+    public int getIndex(String uri, String localName) {return StringUtils.isEmpty(uri) ? getIndex(localName) : -1;}
+
+    @Override
+    public int getIndex(String qName) {                                                                                                     //find an attribute by comparing its name bytes, so no names are decoded
+        if (qName == null)
+            return -1;
+        for (int i = 0; i < length; i++) {
+            if (equalsAscii(buf, nameStart[i], nameLen[i], qName))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String getType(String uri, String localName) {return getType(getIndex(uri, localName));}
+
+    @Override
+    public String getType(String qName) {return getType(getIndex(qName));}
+
+    @Override
+    public String getValue(String uri, String localName) {return getValue(getIndex(uri, localName));}
+
+    @Override
+    public String getValue(String qName) {return getValue(getIndex(qName));}
+
+    private static String normalizeValue(String value) {                                                                                    //XML attribute value normalization: replace character references and entities, TAB and LF become spaces (CR is kept as it was escaped by a SAX parser before)
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n') {
+                sb.append(' ');
+                continue;
+            }
+            if (c == '&') {
+                int semicolon = value.indexOf(';', i + 1);
+                if (semicolon != -1) {
+                    int codePoint = entityCodePoint(value, i + 1, semicolon);
+                    if (codePoint != -1) {
+                        sb.appendCodePoint(codePoint);
+                        i = semicolon;
+                        continue;
+                    }
+                }
+            }
+            sb.append(c);                                                                                                                   //an unknown entity is left as is
+        }
+        return sb.toString();
+    }
+
+    private static int entityCodePoint(String s, int start, int end) {                                                                      //return a code point for the entity or -1 if the entity is unknown
+        String entity = s.substring(start, end);
+        switch (entity) {
+            case "lt":   return '<';
+            case "gt":   return '>';
+            case "amp":  return '&';
+            case "quot": return '"';
+            case "apos": return '\'';
+        }
+        if (!entity.startsWith("#"))
+            return -1;
+        try {
+            boolean isHex = entity.startsWith("#x") || entity.startsWith("#X");
+            int codePoint = isHex ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ru.heckzero.server.net;
+
+import io.netty.buffer.ByteBuf;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+public class XmlTokenizer {                                                                                                                 //a streaming tokenizer of the Flash XML socket commands, reads element names and attributes straight from a ByteBuf
+    public interface ElementHandler {                                                                                                       //will be called for every start (or empty) element found in a buffer, attributes are valid only until the method returns
+        void startElement(String qName, Attributes attributes) throws SAXException;
+    }
+
+    private static final int NAMES_CACHE_SIZE = 512;                                                                                        //element names cache size (must be a power of 2)
+    private static final int NAME_MAX_CACHED_LEN = 32;                                                                                      //don't cache names that are longer than that
+    private static final int NAME_MAX_PROBES = 8;                                                                                           //linear probing length of the names cache
+    private static volatile String[] namesCache = new String[NAMES_CACHE_SIZE];                                                             //the known command names, shared by all the tokenizers and never modified once published, so a client can't push them out with made up names
+
+    private final XmlAttributes attributes = new XmlAttributes();                                                                           //reusable attribute view, one per tokenizer (per thread)
+
+    public XmlTokenizer() { }
+
+    public static void cacheNames(Collection<String> names) {                                                                               //publish the names of the known commands, the other element names are decoded per message
+        String[] cache = namesCache.clone();
+        int mask = NAMES_CACHE_SIZE - 1;
+        for (String name : names) {
+            if (name.length() > NAME_MAX_CACHED_LEN || !StandardCharsets.US_ASCII.newEncoder().canEncode(name))                             //only pure ASCII names are cached, so a name could be compared byte per char
+                continue;
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++)
+                hash = 31 * hash + (byte)name.charAt(i);
+            for (int probe = 0, slot = hash & mask; probe < NAME_MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+                if (cache[slot] == null || cache[slot].equals(name)) {
+                    cache[slot] = name;
+                    break;
+                }
+            }
+        }
+        namesCache = cache;
+        return;
+    }
+
+    public void tokenize(ByteBuf buf, ElementHandler handler) throws SAXException {                                                         //find every element within the readable bytes of buf and pass it to the handler in the document order
+        int end = buf.writerIndex();
+        int i = buf.readerIndex();
+
+        while ((i = buf.indexOf(i, end, (byte)'<')) != -1) {                                                                                //the text outside the tags is silently skipped
+            if (i + 1 >= end)
+                throw new SAXException("unexpected end of a message after '<'");
+            byte b = buf.getByte(i + 1);
+            if (b == '/' || b == '?' || b == '!') {                                                                                         //end tag, processing instruction, comment or declaration - skip it
+                i = skipTag(buf, i, end, b);
+                continue;
+            }
+            i = parseElement(buf, i + 1, end, handler);
+        }
+        return;
+    }
+
+    public static String peekElementName(ByteBuf buf) {                                                                                     //return the name of the first element in buf or null, it's used to classify a message without tokenizing it completely
+        int end = buf.writerIndex();
+        int i = buf.indexOf(buf.readerIndex(), end, (byte)'<');
+        if (i == -1)
+            return null;
+        int nameEnd = scanName(buf, ++i, end);
+        return nameEnd > i ? elementName(buf, i, nameEnd - i) : null;
+    }
+
+    private int skipTag(ByteBuf buf, int start, int end, byte type) throws SAXException {                                                   //return an index right after the end of the tag started at start
+        if (type == '!' && start + 3 < end && buf.getByte(start + 2) == '-' && buf.getByte(start + 3) == '-') {                             //a comment, may contain '>' inside, so look for "-->"
+            for (int i = start + 4; (i = buf.indexOf(i, end, (byte)'>')) != -1; i++) {
+                if (buf.getByte(i - 1) == '-' && buf.getByte(i - 2) == '-')
+                    return i + 1;
+            }
+            throw new SAXException("unterminated comment");
+        }
+        int gt = buf.indexOf(start, end, (byte)'>');
+        if (gt == -1)
+            throw new SAXException("unterminated tag");
+        return gt + 1;
+    }
+
+    private int parseElement(ByteBuf buf, int i, int end, ElementHandler handler) throws SAXException {                                     //parse a start tag beginning right after '<', return an index right after the tag
+        int nameEnd = scanName(buf, i, end);
+        if (nameEnd == i)
+            throw new SAXException("an element name is expected after '<'");
+        String qName = elementName(buf, i, nameEnd - i);
+
+        attributes.reset(buf);
+        i = nameEnd;
+        while (true) {
+            i = skipWhitespace(buf, i, end);
+            if (i >= end)
+                throw new SAXException(String.format("unterminated element <%s", qName));
+            byte b = buf.getByte(i);
+            if (b == '>') {
+                i++;
+                break;
+            }
+            if (b == '/') {                                                                                                                 //an empty element <NAME/>
+                if (i + 1 >= end || buf.getByte(i + 1) != '>')
+                    throw new SAXException(String.format("'>' is expected after '/' in element <%s", qName));
+                i += 2;
+                break;
+            }
+
+            int attrNameEnd = scanName(buf, i, end);                                                                                        //an attribute name="value"
+            if (attrNameEnd == i)
+                throw new SAXException(String.format("illegal character '%c' in element <%s", (char)b, qName));
+            int eq = skipWhitespace(buf, attrNameEnd, end);
+            if (eq >= end || buf.getByte(eq) != '=')
+                throw new SAXException(String.format("'=' is expected after an attribute name in element <%s", qName));
+            int q = skipWhitespace(buf, eq + 1, end);
+            byte quote = q < end ? buf.getByte(q) : 0;
+            if (quote != '"' && quote != '\'')
+                throw new SAXException(String.format("an attribute value must be quoted in element <%s", qName));
+
+            boolean normalize = false;                                                                                                      //scan the value for the closing quote and figure out if the value needs to be normalized
+            int v = q + 1;
+            for (; v < end; v++) {
+                byte c = buf.getByte(v);
+                if (c == quote)
+                    break;
+                if (c == '<')
+                    throw new SAXException(String.format("'<' is not allowed in an attribute value in element <%s", qName));
+                if (c == '&' || c == '\t' || c == '\n')
+                    normalize = true;
+            }
+            if (v >= end)
+                throw new SAXException(String.format("unterminated attribute value in element <%s", qName));
+            attributes.add(i, attrNameEnd - i, q + 1, v - q - 1, normalize);
+            i = v + 1;
+        }
+
+        handler.startElement(qName, attributes);
+        return i;
+    }
+
+    private static int skipWhitespace(ByteBuf buf, int i, int end) {
+        while (i < end && isWhitespace(buf.getByte(i)))
+            i++;
+        return i;
+    }
+
+    private static int scanName(ByteBuf buf, int i, int end) {                                                                              //return an index of the first byte that can't be a part of an XML name
+        while (i < end) {
+            byte b = buf.getByte(i);
+            if (isWhitespace(b) || b == '>' || b == '/' || b == '=' || b == '<' || b == '"' || b == '\'')
+                break;
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {return b == ' ' || b == '\t' || b == '\n' || b == '\r';}
+
+    private static String elementName(ByteBuf buf, int start, int len) {                                                                    //get a known command name from the names cache or decode the name
+        if (len > NAME_MAX_CACHED_LEN)
+            return buf.toString(start, len, StandardCharsets.UTF_8);
+
+        int hash = 0;
+        for (int i = 0; i < len; i++)
+            hash = 31 * hash + buf.getByte(start + i);
+
+        String[] cache = namesCache;
+        int mask = NAMES_CACHE_SIZE - 1;
+        for (int probe = 0, slot = hash & mask; probe < NAME_MAX_PROBES; probe++, slot = (slot + 1) & mask) {                               //open addressing with a short linear probing
+            String cached = cache[slot];
+            if (cached == null)                                                                                                             //not a known command
+                break;
+            if (XmlAttributes.equalsAscii(buf, start, len, cached))
+                return cached;
+        }
+        return buf.toString(start, len, StandardCharsets.UTF_8);
+    }
+}
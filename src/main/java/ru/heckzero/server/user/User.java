@@ -14,20 +14,30 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.type.LongType;
 import ru.heckzero.server.Chat;
+import ru.heckzero.server.ServerConfig;
 import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.items.Item;
 import ru.heckzero.server.items.ItemBox;
 import ru.heckzero.server.items.ItemsDct;
+import ru.heckzero.server.net.NetInHandlerMain;
+import ru.heckzero.server.net.TrafficJournal;
+import ru.heckzero.server.net.WriteCoalescer;
+import ru.heckzero.server.utils.DirtyParams;
 import ru.heckzero.server.utils.History;
 import ru.heckzero.server.utils.HistoryCodes;
 import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
+import ru.heckzero.server.utils.SerialExecutor;
 import ru.heckzero.server.world.*;
 
 import javax.persistence.*;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -44,7 +54,10 @@ public class User {
     public enum Params {login, password, serverid, confattack, freeexchange, crypt_pass, email, reg_time, lastatime, lastlogin, boxp, lastlogout, lastclantime, loc_time, cure_time, god, hint, exp, pro, propwr, rank_points, clan, clan_img, alliance, clr, img, man, HP, psy, str, dex, intu, pow, acc, intel, sk0, sk1, sk2, sk3, sk4, sk5, sk6, sk7, sk8, sk9, sk10, sk11, sk12, X, Y, Z, hz, ROOM, id1, id2, i1, ne, ne2, cup_0, cup_1, cup_2, silv, gold, p78money, acc_flags, siluet, bot, name, city, about, note, list, plist, ODratio, brokenslots, poisoning, virus, ill, illtime, sp_head, sp_left, sp_right, sp_foot, df_eff, eff1, eff2, eff3, eff4, eff5, eff6, eff7, eff8, eff9, eff10, rd, rd1, t1, t2, dismiss, chatblock, forumblock, dl, time, tdt, citizen, owner, level, predlevel, nextlevel, maxHP, maxPsy, nochat, kupol, battleid, ft, group, stamina, vip}  //all possible params that can be accessed via get/setParam()
     private static final EnumSet<Params> getmeParams = EnumSet.of(Params.time, Params.tdt, Params.citizen, Params.owner, Params.level, Params.predlevel, Params.nextlevel, Params.maxHP, Params.maxPsy, Params.kupol, Params.login, Params.email, Params.loc_time, Params.god, Params.hint, Params.exp, Params.pro, Params.propwr, Params.rank_points, Params.clan, Params.clan_img, Params.clr, Params.img, Params.alliance, Params.man, Params.HP, Params.psy, Params.stamina, Params.str, Params.dex, Params.intu, Params.pow,  Params.acc, Params.intel, Params.sk0, Params.sk1, Params.sk2, Params.sk3, Params.sk4, Params.sk5, Params.sk6, Params.sk7, Params.sk8, Params.sk9, Params.sk10, Params.sk11, Params.sk12, Params.X, Params.Y, Params.Z, Params.hz, Params.ROOM, Params.id1, Params.id2, Params.i1, Params.ne, Params.ne2, Params.cup_0, Params.cup_1, Params.cup_2, Params.silv, Params.gold, Params.p78money, Params.acc_flags, Params.siluet, Params.bot, Params.name, Params.city, Params.about, Params.note, Params.list, Params.plist, Params.ODratio, Params.virus, Params.brokenslots, Params.poisoning, Params.ill, Params.illtime, Params.sp_head, Params.sp_left, Params.sp_right, Params.sp_foot, Params.eff1, Params.eff2, Params.eff3, Params.eff4, Params.eff5, Params.eff6, Params.eff7, Params.eff8, Params.eff9, Params.eff10, Params.rd, Params.rd1, Params.t1, Params.t2, Params.dismiss, Params.chatblock, Params.forumblock);   //params sent in <MYPARAM/>
     private static final EnumSet<Params> getinfoParams = EnumSet.of(Params.login, Params.serverid, Params.nochat, Params.citizen, Params.battleid, Params.confattack, Params.ft, Params.pro, Params.propwr, Params.clan, Params.clan_img, Params.rank_points, Params.img, Params.man, Params.HP, Params.psy, Params.str, Params.dex, Params.intu, Params.pow, Params.acc, Params.intel, Params.siluet, Params.name, Params.city, Params.about, Params.brokenslots, Params.poisoning, Params.virus, Params.ill, Params.dismiss, Params.chatblock, Params.forumblock, Params.maxHP, Params.maxPsy, Params.kupol, Params.level, Params.vip);
+    private static final ParamsXml getmeXml = ParamsXml.of(getmeParams, Map.of(Params.intu, "int")), getinfoXml = ParamsXml.of(getinfoParams, Map.of(Params.intu, "int")); //the XML serializers of the param sets, intu is sent as "int"
+    private static final EnumSet<Params> userTypeParams = EnumSet.of(Params.clan, Params.bot, Params.battleid);                             //the params UserManager classifies the users by, along with their channels
     private static final int DB_SYNC_INTERVAL = 180;                                                                                        //user database sync interval in seconds
+    private static final int SYNC_CHECK_INTERVAL = 30;                                                                                      //seconds between the checks whether the user needs a db sync or an expired items check
     private static final int TRANSFER_RATE = 5;                                                                                             //transfer rate percentage
 
     public int getMoneyCop()     {return getParamInt(Params.cup_0);}
@@ -52,6 +65,8 @@ public class User {
     public double getMoneyGold() {return getParamDouble(Params.gold);}
     public int getMoneyErgon()   {return 0;}
 
+    public record IdCounters(long id1, long id2, long i1) { }                                                                               //the item id counters the client reports in <N/>
+
     private static long getId2() {                                                                                                          //compute next id2 value for the user
         try (Session session = ServerMain.sessionFactory.openSession()) {
             NativeQuery<Long> query = session.createSQLQuery("select setval('main_id_seq', nextval('main_id_seq') + 100, false) - 100 as id2").addScalar("id2", LongType.INSTANCE);
@@ -63,12 +78,16 @@ public class User {
     }
     @Transient volatile private Channel gameChannel = null;                                                                                 //user game channel
     @Transient volatile private Channel chatChannel = null;                                                                                 //user chat channel
-    @Transient private final AtomicBoolean needSync = new AtomicBoolean(false);                                                             //user need to be synced if some params have been modified
+    @Transient private final DirtyParams<Params> dirtyParams = new DirtyParams<>(Params.class);                                             //the params modified since the last sync, only their columns are updated
     @Transient private final Chat chat = new Chat(this);
+    @Transient volatile private boolean chatRoomStale = false;                                                                              //presence updates have been dropped, the room list must be resent
     @Transient private long lastsynctime;
+    @Transient volatile private IdCounters idCounters = null;                                                                               //id1, id2, i1 cached for the keepalive fast path, it's replaced as a whole so the event loop never sees a half updated set
+    @Transient private ScheduledFuture<?> syncTask = null;                                                                                  //the periodic db sync and expired items check while the user is online
     @Transient private long lastSentId2 = -1;                                                                                               //last id2 value sent to user by com_MYPARAM() or com_NEWID()
     @Transient private ItemBox itemBox = null;                                                                                              //users item box will be initialized upon a first access
     @Transient private Building currBld = null;                                                                                             //current user building
+    @Transient private final SerialExecutor mailbox = new SerialExecutor(task -> ServerMain.commandExecutor.execute(task));                 //all the user state changes are made sequentially by the tasks executed in the user mailbox
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_generator_sequence")
@@ -94,6 +113,7 @@ public class User {
     public Integer getId() {return id;}
     public Channel getGameChannel() {return this.gameChannel;}
     public Channel getChatChannel() {return this.chatChannel;}
+    public SerialExecutor getMailbox() {return mailbox;}                                                                                    //other users must change this user via the tasks sent to its mailbox
     public String getLogin() {return getParamStr(Params.login);}                                                                            //just a shortcut
     private String getParam_battleid() {return StringUtils.EMPTY;}
     private String getParam_group() {return StringUtils.EMPTY;}
@@ -133,13 +153,11 @@ public class User {
         };
         return (int)(str * 500 * profRate);
     }
-    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param.toString());}                                        //get user param value as different type
-    public int getParamInt(Params param) {return ParamUtils.getParamInt(this, param.toString());}                                           //get user param value as different type
-    public long getParamLong(Params param) {return ParamUtils.getParamLong(this, param.toString());}                                        //get user param value as different type
-    public double getParamDouble(Params param) {return ParamUtils.getParamDouble(this, param.toString());}                                  //get user param value as different type
+    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param);}                                                   //get user param value as different type
+    public int getParamInt(Params param) {return ParamUtils.getParamInt(this, param);}                                                      //get user param value as different type
+    public long getParamLong(Params param) {return ParamUtils.getParamLong(this, param);}                                                   //get user param value as different type
+    public double getParamDouble(Params param) {return ParamUtils.getParamDouble(this, param);}                                             //get user param value as different type
 
-    private String getParamXml(Params param, boolean appendEmpty) {return getParamStr(param).transform(s -> (!s.isEmpty() || appendEmpty) ? String.format("%s=\"%s\"", param == Params.intu ? "int" : param.toString(), s) : StringUtils.EMPTY); } //get param as XML attribute, will return an empty string if value is empty and appendEmpty == false
-    private String getParamsXml(EnumSet<Params> params, boolean appendEmpty) {return params.stream().map(p -> getParamXml(p, appendEmpty)).filter(StringUtils::isNotBlank).collect(Collectors.joining(" "));}
 
     public Location getLocation() {return Location.getLocation(getParamInt(Params.X), getParamInt(Params.Y));}                              //get the location the user is now at
     public Location getLocation(int btnNum) {return Location.getLocation(getParamInt(Params.X), getParamInt(Params.Y), btnNum);}            //get the location for minimap button number
@@ -172,17 +190,31 @@ public class User {
                 disconnect();
                 return -1;
             }
-            setParam(Params.id1, id2);
-            setParam(Params.id2, newId2);
+            setLong(Params.id1, id2);
+            setLong(Params.id2, newId2);
         }
-        setParam(Params.i1, i1);
+        setInt(Params.i1, (int)i1);
+        cacheIdCounters();
         logger.info("computed NEW ID: %d for user %s (id1 = %d, id2 = %d, i1 = %d)", newId, getLogin(), getParamLong(Params.id1), getParamLong(Params.id2), getParamInt(Params.i1));
         return newId;
     }
 
-    public void setParam(Params paramName, Object paramValue) {                                                                             //set a user param
-        if (ParamUtils.setParam(params, paramName.toString(), paramValue))                                                                  //delegate param setting to ParamUtils class
-            needSync.compareAndSet(false, true);                                                                                            //set needSync to true to get this user to be synced on a nex sync() call
+    public IdCounters getIdCounters() {return idCounters;}                                                                                  //null if the counters haven't been cached yet, the keepalive will take the slow path then
+    private void cacheIdCounters() {
+        idCounters = new IdCounters(getParamLong(Params.id1), getParamLong(Params.id2), getParamLong(Params.i1));
+        return;
+    }
+
+    public void setParam(Params paramName, Object paramValue) {paramSet(paramName, ParamUtils.setParam(params, paramName, paramValue));}    //set a user param, delegate param setting to ParamUtils class
+    public void setInt(Params paramName, int paramValue) {paramSet(paramName, ParamUtils.setInt(params, paramName, paramValue));}           //the typed setters skip the value conversion when the field has the same type
+    public void setLong(Params paramName, long paramValue) {paramSet(paramName, ParamUtils.setLong(params, paramName, paramValue));}
+    public void setDouble(Params paramName, double paramValue) {paramSet(paramName, ParamUtils.setDouble(params, paramName, paramValue));}
+    public void setString(Params paramName, String paramValue) {paramSet(paramName, ParamUtils.setString(params, paramName, paramValue));}
+    private void paramSet(Params paramName, boolean isSet) {
+        if (isSet)
+            dirtyParams.mark(paramName);                                                                                                    //the param will be written by a next sync() call
+        if (isSet && userTypeParams.contains(paramName))                                                                                    //the user may have become a cop or a bot or may have entered a battle
+            UserManager.classifyUser(this);
         if (!isInGame())                                                                                                                    //sync the user immediately if he is offline and  not in a battle
             sync();
         return;
@@ -195,12 +227,18 @@ public class User {
     synchronized void onlineGame(Channel ch) {                                                                                              //the user game channel connected
         logger.debug("setting user '%s' game channel online", getLogin());
         this.gameChannel = ch;                                                                                                              //set user game channel
+        UserManager.classifyUser(this);                                                                                                     //the user is online and in game now
         this.gameChannel.attr(AttributeKey.valueOf("chType")).set(ChannelType.GAME);                                                        //set the user channel type to GAME
+        this.gameChannel.attr(AttributeKey.valueOf("user")).set(this);                                                                      //the keepalive fast path finds the user by the channel
+        NetInHandlerMain.bindToMailbox(ch, mailbox);                                                                                        //the next commands from the game channel will be executed in the user mailbox
         this.gameChannel.attr(AttributeKey.valueOf("chStr")).set("user '" + getLogin() + "'");                                              //replace a channel representation string to 'user <login>' instead of IP:port
-        this.gameChannel.pipeline().replace("socketIdleHandler", "userIdleHandler", new ReadTimeoutHandler(ServerMain.hzConfiguration.getInt("ServerSetup.MaxUserIdleTime", ServerMain.DEF_MAX_USER_IDLE_TIME))); //replace read timeout handler to a new one with a longer timeout defined for authorized user
-        setParam(Params.lastlogin, Instant.now().getEpochSecond());                                                                         //set user last login time, needed to compute loc_time
+        TrafficJournal.sessionUser(ch, getLogin());                                                                                         //bind the traffic journal session to the user
+        this.gameChannel.pipeline().replace("socketIdleHandler", "userIdleHandler", new ReadTimeoutHandler(ServerConfig.get().maxUserIdleTime())); //replace read timeout handler to a new one with a longer timeout defined for authorized user
+        setLong(Params.lastlogin, Instant.now().getEpochSecond());                                                                          //set user last login time, needed to compute loc_time
         this.lastsynctime = Instant.now().getEpochSecond();                                                                                 //set last db sync time to now
-        setParam(Params.loc_time, Math.min(Instant.now().getEpochSecond() + 12, getParamLong(Params.loc_time) != 0L ? getParamLong(Params.loc_time) + getParamLong(Params.lastlogin) - getParamLong(Params.lastlogout) : getParamLong(Params.reg_time))); //compute client loc_time - time when user is allowed to leave his current location
+        cacheIdCounters();
+        this.syncTask = ServerMain.userTasksScheduledExecutor.scheduleWithFixedDelay(() -> mailbox.execute(this::syncCheck), SYNC_CHECK_INTERVAL, SYNC_CHECK_INTERVAL, TimeUnit.SECONDS);   //it used to be checked by every keepalive
+        setLong(Params.loc_time, Math.min(Instant.now().getEpochSecond() + 12, getParamLong(Params.loc_time) != 0L ? getParamLong(Params.loc_time) + getParamLong(Params.lastlogin) - getParamLong(Params.lastlogout) : getParamLong(Params.reg_time))); //compute client loc_time - time when user is allowed to leave his current location
         String resultMsg = String.format("<OK l=\"%s\" ses=\"%s\"/>", getLogin(), ch.attr(AttributeKey.valueOf("encKey")).get());           //<OK/> message with a chat auth key in ses attribute (using already existing key)
         sendMsg(resultMsg);                                                                                                                 //send login <OK/> message to the user
         addHistory(HistoryCodes.LOG_LOGIN, (String)ch.attr(AttributeKey.valueOf("sockStr")).get());                                         //Вход в игру с IP=%s
@@ -213,8 +251,12 @@ public class User {
 
     synchronized void offlineGame() {                                                                                                       //the user game channel disconnected
         logger.debug("setting user '%s' game channel offline", getLogin());
-        setParam(Params.lastlogout, Instant.now().getEpochSecond());                                                                        //set lastlogout to now
+        setLong(Params.lastlogout, Instant.now().getEpochSecond());                                                                         //set lastlogout to now
         this.gameChannel = null;                                                                                                            //a marker that user is offline now
+        UserManager.classifyUser(this);
+        if (syncTask != null)
+            syncTask.cancel(false);
+        syncTask = null;
         disconnectChat();                                                                                                                   //having a chat channel without a game channel is ridiculous, so disconnecting the chat
         chat.updateMyStatus();                                                                                                              //will remove user from room
         addHistory(HistoryCodes.LOG_LOGOUT);                                                                                                //Выход из игры
@@ -228,15 +270,21 @@ public class User {
     synchronized void onlineChat(Channel ch) {
         logger.debug("turning user '%s' chat on", getLogin());
         this.chatChannel = ch;
+        UserManager.classifyUser(this);
+        this.chatRoomStale = false;                                                                                                         //chat.start() sends the room list anyway
         this.chatChannel.attr(AttributeKey.valueOf("chType")).set(ChannelType.CHAT);
+        this.chatChannel.attr(AttributeKey.valueOf("user")).set(this);
+        NetInHandlerMain.bindToMailbox(ch, ServerMain.chatExecutor);                                                                        //the chat commands only read the user state, so they run on the chat executor instead of the user mailbox and can't delay the game commands
         this.chatChannel.attr(AttributeKey.valueOf("chStr")).set("user '" + getLogin() + "' (chat)");
-        this.chatChannel.pipeline().replace("socketIdleHandler", "userIdleHandler", new ReadTimeoutHandler(ServerMain.hzConfiguration.getInt("ServerSetup.MaxUserIdleTime", ServerMain.DEF_MAX_USER_IDLE_TIME)));
+        TrafficJournal.sessionUser(ch, getLogin());
+        this.chatChannel.pipeline().replace("socketIdleHandler", "userIdleHandler", new ReadTimeoutHandler(ServerConfig.get().maxUserIdleTime()));
         chat.start();
         return;
     }
     synchronized void offlineChat() {                                                                                                       //user chat channel has been disconnected
         logger.debug("turning user '%s' chat off", getLogin());
         this.chatChannel = null;
+        UserManager.classifyUser(this);
         chat.updateMyStatus();
         notify();
         logger.info("user '%s' chat channel logged out", getLogin());
@@ -250,7 +298,7 @@ public class User {
             return;
 
         if (dropped.isPassport()) {                                                                                                         //dropped item is a passport
-            this.setParam(Params.img, StringUtils.EMPTY);                                                                                   //reset user avatar
+            this.setString(Params.img, StringUtils.EMPTY);                                                                                  //reset user avatar
             sendMsg("<MYPARAM img=\"\"/>");
         }
 
@@ -267,12 +315,13 @@ public class User {
     public void com_MYPARAM() {                                                                                                             //provision the client initial params as a reply for <GETME/>
         logger.info("processing <GETME/> from %s", gameChannel.attr(AttributeKey.valueOf("chStr")).get());
 
-        StringJoiner sj = new StringJoiner("", "<MYPARAM ", "</MYPARAM>");
-        sj.add(getParamsXml(getmeParams, false)).add(">");
-        sj.add(getItemBox().getXml());
+        StringBuilder sb = new StringBuilder(8192).append("<MYPARAM");
+        getmeXml.append(sb, this).append('>');
+        getItemBox().appendXml(sb);
+        sb.append("</MYPARAM>");
 
         lastSentId2 = getParamLong(Params.id2);
-        sendMsg(sj.toString());
+        sendMsg(sb.toString());
         checkIMS();
         return;
     }
@@ -288,7 +337,7 @@ public class User {
         StringJoiner sj = new StringJoiner(" ", "<USERPARAM ", "</USERPARAM>");
 //        if (details != -1)
         sj.add("details=\"1\"");
-        sj.add(user.getParamsXml(getinfoParams, false));                                                                                    //send a list of getinfo params
+        sj.add(getinfoXml.toXml(user));                                                                                                     //send a list of getinfo params
 
         if (user.isOnlineGame()) {                                                                                                          //user is online
             sj.add(String.format("X=\"%d\"", getParamInt(Params.X)));                                                                       //"X" is always sent if user is online
@@ -339,7 +388,7 @@ public class User {
             sj.add(String.format(" n=\"%d\"", btnNum));                                                                                     //add n="shift" if we have moved to some location
 
             Long locTime = Instant.now().getEpochSecond() + Math.max(locationToGo.getParamInt(Location.Params.tm), 5);                      //compute a new loc_time for user(now + the location loc_time (location tm parameter))
-            setParam(Params.loc_time, locTime);                                                                                             //set the new loc_time for a user
+            setLong(Params.loc_time, locTime);                                                                                              //set the new loc_time for a user
             setLocation(locationToGo.getParamInt(Location.Params.X), locationToGo.getParamInt(Location.Params.Y));                          //actually change user coordinates to new location
             String reply = String.format("<MYPARAM loc_time=\"%d\" kupol=\"%d\"/>", locTime, getParamInt(Params.kupol));
             sendMsg(reply);
@@ -509,7 +558,7 @@ public class User {
                 continue;
 
             int influence = Integer.parseInt(bonusStat.split("=")[1]);                                                                      //get the stat influence value
-            setParam(stat, getParamInt(stat) + (isEquipping ? influence : influence * -1));                                                 //update the corresponding user stat param
+            setInt(stat, getParamInt(stat) + (isEquipping ? influence : influence * -1));                                                   //update the corresponding user stat param
         }
         return;
     }
@@ -568,8 +617,10 @@ public class User {
         decMoney(withdrawSum);                                                                                                              //decrease money from sender
         addHistory(HistoryCodes.LOG_MONEY_TRANSFER_TO, String.valueOf(ItemsDct.MONEY_COPP), String.valueOf(c), receiver.getLogin(), String.valueOf(tax), String.valueOf(getMoneyCop()), msg);       //Перевёл {%s[%s]} персонажу '%s'. Стоимость отправки %s мнт. Осталось %s мнт. %s
 
-        receiver.addMoney(c);                                                                                                               //add money to receiver
-        receiver.addHistory(HistoryCodes.LOG_MONEY_TRANSFER_FROM, String.valueOf(ItemsDct.MONEY_COPP), String.valueOf(c), getLogin(), String.valueOf(receiver.getMoneyCop()), msg);//Получено {%s[%s]} от персонажа \'%s\'. Всего на счету: %s мнт. %s",
+        receiver.getMailbox().execute(() -> {                                                                                               //the receiver is changed in its own mailbox
+            receiver.addMoney(c);                                                                                                           //add money to receiver
+            receiver.addHistory(HistoryCodes.LOG_MONEY_TRANSFER_FROM, String.valueOf(ItemsDct.MONEY_COPP), String.valueOf(c), getLogin(), String.valueOf(receiver.getMoneyCop()), msg);//Получено {%s[%s]} от персонажа \'%s\'. Всего на счету: %s мнт. %s",
+        });
         sendMsg("<TRANSFER />");
         return;
     }
@@ -586,7 +637,7 @@ public class User {
 
     public void com_SILUET(String slt, String set) {                                                                                        //set user body type
         logger.debug("processing <SILUET/> from %s", getLogin());
-        setParam(Params.siluet, set);
+        setString(Params.siluet, set);
         String response = String.format("<SILUET code=\"0\"/><MYPARAM siluet=\"%s\"/>", set);
         sendMsg(response);
         return;
@@ -617,11 +668,16 @@ public class User {
             logger.error("%s !!!!!!!!MISTIMING!!!!!!!! id1 = %s s_id1 = %s, id2 = %s s_id2 = %s, i1 = %s s_i1 = %s", getLogin(), id1, s_id1, id2, s_id2, i1, s_i1);
             disconnect();
         }
+        return;
+    }
+
+    private void syncCheck() {                                                                                                              //runs in the user mailbox every SYNC_CHECK_INTERVAL seconds while the user is online
+        if (!isOnlineGame())
+            return;
         if (Instant.now().getEpochSecond() - lastsynctime > DB_SYNC_INTERVAL)                                                               //user db sync check interval
             sync();                                                                                                                         //sync the user with db
         if (Instant.now().getEpochSecond() - lastsynctime > DB_SYNC_INTERVAL * 2)                                                           //user items expiration check interval
             com_CHECK();                                                                                                                    //check and delete user's expired items
-
         return;
     }
 
@@ -656,15 +712,15 @@ public class User {
         chat.removeMe();                                                                                                                    //remove user from chat room
 
         if (X >= 0)
-            setParam(Params.X, X);
+            setInt(Params.X, X);
         if (Y >= 0)
-            setParam(Params.Y, Y);
+            setInt(Params.Y, Y);
         if (Z >= 0)
-            setParam(Params.Z, Z);
+            setInt(Params.Z, Z);
         if (hz >= 0)
-            setParam(Params.hz, hz);
+            setInt(Params.hz, hz);
         if (ROOM >= 0)
-            setParam(Params.ROOM, ROOM);
+            setInt(Params.ROOM, ROOM);
 
         chat.updateMyStatus();
         chat.showMeRoom();
@@ -699,7 +755,7 @@ public class User {
     public boolean decMoney(double amount) {return decMoney(ItemsDct.MONEY_COPP, amount);}
     public boolean decMoney(int type, double amount) {return addMoney(type, amount * -1);}                                                  //decrease user money
     public boolean addMoney(int amount) {return addMoney(ItemsDct.MONEY_COPP, amount);}
-    synchronized public boolean addMoney(int type, double amount) {                                                                         //add money to user
+    public boolean addMoney(int type, double amount) {                                                                                      //add money to user, must be called from the user mailbox
         if (amount == 0)                                                                                                                    //nothing to do
             return true;
         Params moneyParam = switch (type) {                                                                                                 //money type copper, silver, gold
@@ -713,7 +769,7 @@ public class User {
             logger.warn("can't adjust user %s money by %f, because it become negative: %.2f", getLogin(), amount, money);
             return false;
         }
-        setParam(moneyParam, money);                                                                                                        //set new money value
+        setDouble(moneyParam, money);                                                                                                       //set new money value
         if (amount < 0)
             sendMsg(String.format("<DM c=\"%.2f\" m=\"%d\"/>", amount * -1, type));
         else
@@ -722,13 +778,17 @@ public class User {
     }
 
     public void sync() {sync(false);}
-    public void sync(boolean force) {                                                                                                       //update the user in database
-        if (needSync.compareAndSet(true, false) || force) {                                                                                 //sync if one of needSync or force = true
-            logger.info("syncing user %s", getLogin());
-            ServerMain.sync(this);
-            lastsynctime = Instant.now().getEpochSecond();                                                                                  //reset lastsynctime(set it to now)
-        } else
+    public void sync(boolean force) {                                                                                                       //update the user in database, force = true writes the whole row
+        EnumSet<Params> changed = dirtyParams.drain();
+        if (changed.isEmpty() && !force) {
             logger.info("skipping syncing user %s cause he hasn't been changed (AFK?)", getLogin());
+            return;
+        }
+        logger.info("syncing user %s, changed params: %s", getLogin(), changed);
+        boolean synced = force ? ServerMain.sync(this) : ServerMain.update(this, id, ParamUtils.getStoredParams(params, changed, "params.")); //only the changed columns are updated
+        if (!synced)                                                                                                                        //they will be written by a next sync() call
+            dirtyParams.markAll(changed);
+        lastsynctime = Instant.now().getEpochSecond();                                                                                      //reset lastsynctime(set it to now)
         return;
     }
 
@@ -767,10 +827,47 @@ public class User {
 
     public void sendMsg(String msg) {sendMsg(gameChannel, msg);}                                                                            //send a message to the game socket
     public void sendMsgChat(String msg) {sendMsg(chatChannel, msg);}                                                                        //send a message to the chat socket
+    public void sendMsgChatLossy(String msg) {                                                                                              //send a non-essential message (a room chat line) to the chat socket, it's dropped while the channel is congested
+        Channel ch = chatChannel;
+        if (ch != null && ch.isActive())
+            WriteCoalescer.tryWrite(ch, msg);
+        return;
+    }
+    public void sendPresenceChat(String msg) {                                                                                              //send a room-mate presence update to the chat socket, the updates dropped while the channel is congested are coalesced into a fresh room list
+        Channel ch = chatChannel;
+        if (ch == null || !ch.isActive())
+            return;
+        if (chatRoomStale && ch.isWritable()) {                                                                                             //the room list carries the current state of all the room-mates including this update
+            resendChatRoom();
+            return;
+        }
+        if (!WriteCoalescer.tryWrite(ch, msg))
+            chatRoomStale = true;
+        return;
+    }
+    public void chatWritable() {                                                                                                            //the chat channel has become writable again, it's called by the channel event loop
+        Channel ch = chatChannel;
+        if (!chatRoomStale || ch == null)
+            return;
+        try {
+            ((Executor)ch.attr(AttributeKey.valueOf("cmdExecutor")).get()).execute(this::resendChatRoom);                                   //the room list is sent in order with the chat commands, off the event loop
+        } catch (RejectedExecutionException e) {                                                                                            //the chat executor is overloaded, the next presence update will send the room list
+            logger.debug("can't queue the room list resend for user '%s': %s", getLogin(), e.getMessage());
+        }
+        return;
+    }
+    private void resendChatRoom() {                                                                                                         //send a fresh room list in place of the dropped presence updates
+        Channel ch = chatChannel;
+        if (!chatRoomStale || ch == null || !ch.isActive() || !ch.isWritable())                                                             //it has been resent already or the channel is congested again
+            return;
+        chatRoomStale = false;
+        chat.showMeRoom();
+        return;
+    }
     private void sendMsg(Channel ch, String msg) {
         if (ch == null || !ch.isActive())
             return;
-        ch.writeAndFlush(msg);
+        WriteCoalescer.write(ch, msg);                                                                                                      //the message will be flushed along with the others sent by the same command or within a flush tick
         return;
     }
 
@@ -782,6 +879,7 @@ public class User {
     private void disconnect(Channel ch) {
         if (ch == null || !ch.isActive())                                                                                                   //nothing to do
             return;
+        WriteCoalescer.flushNow(ch);                                                                                                        //send out the pending messages (like an error message) before closing the channel
         ch.close();
         return;
     }
@@ -11,6 +11,7 @@ import org.apache.logging.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
+import ru.heckzero.server.ServerConfig;
 import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.utils.History;
 import ru.heckzero.server.utils.HistoryCodes;
@@ -18,8 +19,8 @@ import ru.heckzero.server.utils.HistoryCodes;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -30,37 +31,48 @@ public class UserManager {
     public enum UserType {IN_GAME, ONLINE_GAME, ONLINE_CHAT, ONLINE_GAME_OR_CHAT, IN_BATTLE, NPC, HUMAN, POLICE}
 
     private static final Logger logger = LogManager.getFormatterLogger();
-    private static final CopyOnWriteArrayList<User> cachedUsers = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<Integer, User> usersById = new ConcurrentHashMap<>();                                            //the cached users indexed by id and by a lower case login, both indexes are updated on load and purge
+    private static final ConcurrentHashMap<String, User> usersByLogin = new ConcurrentHashMap<>();                                          //an online user is found by its channel attribute "user", which is set by onlineGame() and onlineChat()
 
     private static boolean isValidPassword(String pasword) {return isValidSHA1(pasword);}                                                   //check if a user provided password conforms the requirements
     private static boolean isValidSHA1(String s) {return s.matches("^[a-fA-F\\d]{40}$");}                                                   //validate a string has a valid SHA1 hash format
 
-    static {
-        ServerMain.userTasksScheduledExecutor.scheduleWithFixedDelay(UserManager::purgeCachedUsers, 60L, 60L , TimeUnit.SECONDS);           //purging offline users from the cachedUsers
-    }
-    public UserManager() { }
+    private static final Map<UserType, Predicate<User>> userTypes = new EnumMap<>(UserType.class);                                          //what makes a user belong to a type
+    private static final Map<UserType, Set<User>> usersByType = new EnumMap<>(UserType.class);                                              //live sets of the cached users by type, a user is reclassified when its channels or the params defining its type change
 
-    public static List<User> getCachedUsers(UserType type) {
+    static {
         Predicate<User> isOnlineGame = User::isOnlineGame;
         Predicate<User> isOnlineChat = User::isOnlineChat;
-        Predicate<User> isOnlineGameOrChat = isOnlineGame.or(isOnlineChat);
         Predicate<User> isNPC = User::isBot;
-        Predicate<User> isHuman = isNPC.negate();
-        Predicate<User> isCop = User::isCop;
-        Predicate<User> isInBattle = User::isInBattle;
-        Predicate<User> isInGame = User::isInGame;
-
-        return switch (type) {
-            case IN_GAME -> cachedUsers.stream().filter(isInGame).collect(Collectors.toList());
-            case ONLINE_GAME -> cachedUsers.stream().filter(isOnlineGame).collect(Collectors.toList());		                                //all online users game
-            case ONLINE_CHAT -> cachedUsers.stream().filter(isOnlineChat).collect(Collectors.toList());					                    //all online users chat
-            case ONLINE_GAME_OR_CHAT -> cachedUsers.stream().filter(isOnlineGameOrChat).collect(Collectors.toList());		                //all online users with game or chat channel
-            case IN_BATTLE -> cachedUsers.stream().filter(isInBattle).collect(Collectors.toList());				                            //users that are in a battle
-            case NPC -> cachedUsers.stream().filter(isNPC).collect(Collectors.toList());												    //NPC only
-            case HUMAN -> cachedUsers.stream().filter(isHuman).collect(Collectors.toList());					                            //not NPS users
-            case POLICE -> cachedUsers.stream().filter(isCop).collect(Collectors.toList());							                        //cops (clan = police)
-        };
+        userTypes.put(UserType.IN_GAME, User::isInGame);
+        userTypes.put(UserType.ONLINE_GAME, isOnlineGame);                                                                                  //all online users game
+        userTypes.put(UserType.ONLINE_CHAT, isOnlineChat);                                                                                  //all online users chat
+        userTypes.put(UserType.ONLINE_GAME_OR_CHAT, isOnlineGame.or(isOnlineChat));                                                         //all online users with game or chat channel
+        userTypes.put(UserType.IN_BATTLE, User::isInBattle);                                                                                //users that are in a battle
+        userTypes.put(UserType.NPC, isNPC);                                                                                                 //NPC only
+        userTypes.put(UserType.HUMAN, isNPC.negate());                                                                                      //not NPS users
+        userTypes.put(UserType.POLICE, User::isCop);                                                                                        //cops (clan = police)
+        userTypes.keySet().forEach(type -> usersByType.put(type, ConcurrentHashMap.newKeySet()));
+        ServerMain.userTasksScheduledExecutor.scheduleWithFixedDelay(UserManager::purgeCachedUsers, 60L, 60L , TimeUnit.SECONDS);           //purging offline users from the user indexes
+    }
+    public UserManager() { }
+
+    public static Collection<User> getCachedUsers(UserType type) {return Collections.unmodifiableSet(usersByType.get(type));}               //a live view, its iterator never throws and doesn't copy, it may or may not see the changes made while iterating
+    public static int countUsers(UserType type) {return usersByType.get(type).size();}
+
+    static void classifyUser(User user) {                                                                                                   //add the user to the sets of the types it belongs to and remove it from the other sets
+        synchronized (user) {                                                                                                               //two concurrent classifications of a user can't leave it in a mix of the old and the new sets
+            boolean cached = !user.isEmpty() && usersById.get(user.getId()) == user;                                                        //a purged user is removed from all the sets
+            userTypes.forEach((type, predicate) -> {
+                if (cached && predicate.test(user))
+                    usersByType.get(type).add(user);
+                else
+                    usersByType.get(type).remove(user);
+            });
+        }
+        return;
     }
+
     private static boolean areInSameLoc(User user1, User user2) {                                                                           //if users are at a same location
         return user1.getParamInt(User.Params.X) == user2.getParamInt(User.Params.X) && user1.getParamInt(User.Params.Y) == user2.getParamInt(User.Params.Y) && user1.getParamInt(User.Params.Z) == user2.getParamInt(User.Params.Z) ;
     }
@@ -77,42 +89,68 @@ public class UserManager {
     }
 
     public static User getOnlineUserGame(Channel ch) {                                                                                      //search from cached online users by a game channel
-        return getCachedUsers(UserType.ONLINE_GAME).stream().filter(u -> ch.equals(u.getGameChannel())).findFirst().orElseGet(User::new);
+        User user = getChannelUser(ch);
+        return user != null && ch.equals(user.getGameChannel()) ? user : new User();
     }
     public static User getOnlineUserChat(Channel ch) {                                                                                      //search from cached online users by a chat channel
-        return getCachedUsers(UserType.ONLINE_CHAT).stream().filter(u -> ch.equals(u.getChatChannel())).findFirst().orElseGet(User::new);
+        User user = getChannelUser(ch);
+        return user != null && ch.equals(user.getChatChannel()) ? user : new User();
     }
     public static User getOnlineUser(Channel ch) {                                                                                          //search from cached online users by a game or chat channel
-        return getCachedUsers(UserType.ONLINE_GAME_OR_CHAT).stream().filter(u -> ch.equals(u.getGameChannel()) || ch.equals(u.getChatChannel())).findFirst().orElseGet(User::new);
+        User user = getChannelUser(ch);
+        return user != null && (ch.equals(user.getGameChannel()) || ch.equals(user.getChatChannel())) ? user : new User();
     }
+    private static User getChannelUser(Channel ch) {return ch.attr(AttributeKey.valueOf("user")).get() instanceof User user ? user : null;} //the attribute is left on a closed channel, so the user channels are compared too
 
     public static User getOnlineUserGame(String login) {                                                                                    //search from cached online game users by login
-        return getCachedUsers(UserType.ONLINE_GAME).stream().filter(u -> u.getLogin().equalsIgnoreCase(login)).findFirst().orElseGet(User::new);
+        User user = login != null ? usersByLogin.get(normalizeLogin(login)) : null;
+        return user != null && user.isOnlineGame() ? user : new User();
     }
 
     public static User getUser(int id) {                                                                                                    //search from all cached users by id
-        User user = cachedUsers.stream().filter(u -> u.getId().equals(id)).findFirst().orElse(null);
+        User user = usersById.get(id);
         if (user != null)
             return user;
 
         user = getDbUser("UserById", id);
         if (user == null)
             return null;
-        return cachedUsers.addIfAbsent(user) ? user : getUser(id);
+        return cacheUser(user);
     }
 
     public static User getUser(String login) {                                                                                              //search from all cached users by login
-        User user = cachedUsers.stream().filter(u -> u.getLogin().equalsIgnoreCase(login)).findFirst().orElse(null);
-
+        User user = usersByLogin.get(normalizeLogin(login));
         if (user != null)
             return user;
 
         user = getDbUser("UserByLogin", login);
         if (user == null)
             return null;
-        return cachedUsers.addIfAbsent(user) ? user : getUser(login);
+        return cacheUser(user);
     }
 
+    public static User cacheUser(User user) {                                                                                               //add a user loaded from a database to the indexes, if the user has been loaded and cached concurrently, that one is returned
+        if (user.isEmpty())
+            return user;
+        User cached = usersById.putIfAbsent(user.getId(), user);                                                                            //the id index decides which instance wins
+        if (cached != null)
+            return cached;
+        usersByLogin.put(normalizeLogin(user.getLogin()), user);
+        classifyUser(user);
+        return user;
+    }
+
+    public static void clearCache() {usersById.values().forEach(UserManager::uncacheUser);}                                                 //remove all the users from the indexes, the online ones too
+
+    private static void uncacheUser(User user) {                                                                                            //remove a user from all the indexes
+        usersByLogin.remove(normalizeLogin(user.getLogin()), user);
+        usersById.remove(user.getId(), user);
+        classifyUser(user);
+        return;
+    }
+
+    private static String normalizeLogin(String login) {return login.toLowerCase(Locale.ROOT);}                                             //the logins are case insensitive, like lower(login) in the UserByLogin query
+
     private static User getDbUser(String namedQueryName, Object paramValue) throws HibernateException {                                     //instantiate a User from a database
         Session session = ServerMain.sessionFactory.openSession();
         Query<User> query = session.createNamedQuery(namedQueryName, User.class).setParameter(1, paramValue).setCacheable(false);           //param might be a login or id
@@ -260,13 +298,13 @@ public class UserManager {
 
     private static void purgeCachedUsers() {                                                                                                //remove offline users from the cache. the user must not be in a battle and must be offline for a defined amount of time
         logger.debug("purging rotten users from the cached users list");
-        long cacheTimeout = ServerMain.hzConfiguration.getLong("ServerSetup.UsersCachePurgeTime", ServerMain.DEF_USER_CACHE_TIMEOUT);
+        long cacheTimeout = ServerConfig.get().usersCacheTimeout();
 
         Predicate<User> inGame = User::isInGame;
         Predicate<User> timeoutLogout = u -> u.getParamInt(User.Params.lastlogout) > cacheTimeout;
         Predicate<User> timeoutAccess = u -> u.getParamInt(User.Params.lastatime) > cacheTimeout;
         Predicate<User> isRotten = inGame.negate().and(timeoutAccess).and(timeoutLogout);
-        cachedUsers.removeIf(isRotten);                                                                                                     //remove rotten users from cashedUsers
+        usersById.values().stream().filter(isRotten).forEach(UserManager::uncacheUser);                                                     //remove rotten users from the indexes
         return;
     }
 
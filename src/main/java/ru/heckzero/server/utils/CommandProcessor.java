@@ -2,60 +2,112 @@ package ru.heckzero.server.utils;
 
 import io.netty.channel.Channel;
 import io.netty.util.AttributeKey;
+import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.helpers.DefaultHandler;
-import ru.heckzero.server.ServerMain;
+import ru.heckzero.server.ServerConfig;
+import ru.heckzero.server.net.ServerMetrics;
+import ru.heckzero.server.net.WriteCoalescer;
+import ru.heckzero.server.net.XmlTokenizer;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserManager;
 
+import java.lang.invoke.*;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.StringJoiner;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
-public class CommandProcessor extends DefaultHandler {
+public class CommandProcessor implements XmlTokenizer.ElementHandler {
     private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int UNKNOWN_COMMANDS_MAX = 1024;                                                                                   //max number of the unknown commands to remember, so a malicious client won't flood the negative cache
+    private static final EnumMap<User.ChannelType, Map<String, Command>> handlers = new EnumMap<>(User.ChannelType.class);                  //dispatch table: channel type -> command name -> handler, it's built once and never modified after
+    private static final Set<String> unknownCommands = ConcurrentHashMap.newKeySet();                                                       //negative cache of the commands having no handler, used to warn about them only once
+
     private final Channel ch;                                                                                                               //a channel the command came from
-    private final User user;                                                                                                                //a user associated with the channel
+    private User user;                                                                                                                      //a user associated with the channel, resolved lazily as the channel has no user until it's logged in
+    private long receivedAt;                                                                                                                //nanoTime() the message being processed was received at, 0 - unknown
+
+    @FunctionalInterface
+    private interface CommandHandler {                                                                                                      //a direct call to the com_<CHTYPE>_<COMMAND> method
+        void handle(CommandProcessor processor, Attributes attrs);
+    }
+
+    private record Command(CommandHandler handler, ServerMetrics.CommandStats stats) { }                                                    //a handler along with its metrics, so recording them costs no extra lookup
+
+    static {                                                                                                                                //build the dispatch table by binding every com_<CHTYPE>_<COMMAND>(Attributes) method to a CommandHandler
+        for (User.ChannelType chType : User.ChannelType.values())
+            handlers.put(chType, new HashMap<>());
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType handlerType = MethodType.methodType(void.class, CommandProcessor.class, Attributes.class);
+        for (Method method : CommandProcessor.class.getDeclaredMethods()) {
+            String [] nameParts = method.getName().split("_", 3);                                                                           //com, channel type, command name (may contain '_' like TAKE_ON)
+            if (nameParts.length != 3 || !nameParts[0].equals("com") || method.getReturnType() != void.class || !Arrays.equals(method.getParameterTypes(), new Class<?>[] {Attributes.class}))
+                continue;
+            User.ChannelType chType = EnumUtils.getEnum(User.ChannelType.class, nameParts[1]);
+            if (chType == null) {
+                logger.warn("method %s doesn't correspond to any known channel type, skipping it", method.getName());
+                continue;
+            }
+            try {
+                MethodHandle methodHandle = lookup.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "handle", MethodType.methodType(CommandHandler.class), handlerType, methodHandle, handlerType);
+                handlers.get(chType).put(nameParts[2], new Command((CommandHandler)site.getTarget().invokeExact(), ServerMetrics.register(chType.name() + "_" + nameParts[2])));
+            } catch (Throwable e) {
+                logger.error("can't bind command handler %s: %s:%s", method.getName(), e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        XmlTokenizer.cacheNames(handlers.values().stream().flatMap(m -> m.keySet().stream()).collect(Collectors.toSet()));                  //the names of the commands having a handler won't be allocated per message
+        logger.debug("command dispatch table has been built: %d handlers", handlers.values().stream().mapToInt(Map::size).sum());
+    }
 
     public CommandProcessor(Channel ch) {
         this.ch = ch;                                                                                                                       //the channel the command came from
-        this.user = UserManager.getOnlineUser(ch);                                                                                          //a user associated with the channel
         return;
     }
 
-    @Override
-    public void startElement(String chId, String localName, String qName, Attributes attributes) throws SAXException {                      //this will be called for the every XML element received from the client, chId as a namespace uri contains channel id
-        logger.debug("got an XML element: uri: %s, localName: %s, qname: %s, atrrs len = %d", chId, localName, qName, attributes.getLength());
+    public void setReceivedAt(long receivedAt) {                                                                                            //called before tokenizing a message, the queue wait of its commands is measured from this time
+        this.receivedAt = receivedAt;
+        return;
+    }
 
-        if (qName.equals("ROOT"))                                                                                                           //silently ignoring <ROOT/> element
+    @Override
+    public void startElement(String qName, Attributes attributes) throws SAXException {                                                     //this will be called for the every XML element received from the client
+        logger.debug("got an XML element: qname: %s, atrrs len = %d", qName, attributes.getLength());
+
+        User.ChannelType chType = (User.ChannelType)ch.attr(AttributeKey.valueOf("chType")).get();                                          //current channel type, it changes from NOUSER after a successful login
+        Command cmd = handlers.get(chType).get(qName);
+        if (cmd == null) {                                                                                                                  //corresponding handler is not found
+            String command = chType.name() + "_" + qName;
+            if (unknownCommands.contains(command) || unknownCommands.size() >= UNKNOWN_COMMANDS_MAX)
+                logger.debug("can't process command %s: method void com_%s(Attributes) is not yet implemented", qName, command);
+            else if (unknownCommands.add(command))
+                logger.warn("can't process command %s: method void com_%s(Attributes) is not yet implemented", qName, command);
             return;
+        }
 
-        String handleMethodName = String.format("com_%s_%s", ((User.ChannelType)ch.attr(AttributeKey.valueOf("chType")).get()).name(), qName); //handler method name to process a user command
-        logger.debug("trying to find and execute method %s", handleMethodName);
+        if (user == null && chType != User.ChannelType.NOUSER)                                                                              //the channel has been bound to a user, get it once
+            user = UserManager.getOnlineUser(ch);
+        long started = System.nanoTime();
+        long writtenBefore = WriteCoalescer.getWrittenBytes();
         try {
-            Method handlerMethod = this.getClass().getDeclaredMethod(handleMethodName, Attributes.class);	                                //get a handler method reference
-            handlerMethod.invoke(this, attributes);
-        }catch (NoSuchMethodException e) {                                                                                                  //corresponding method is not found
-            logger.warn("can't process command %s: method void %s(Attributes) is not yet implemented", qName, handleMethodName);
-        }catch (Exception e) {																						                        //method invocation error occurred while executing the handler method
-            logger.error("can't execute method %s: %s", handleMethodName, e.getMessage());
+            cmd.handler().handle(this, attributes);
+        }catch (Exception e) {                                                                                                              //an error occurred while executing the handler method
+            logger.error("can't execute method com_%s_%s: %s", chType.name(), qName, e.getMessage());
             e.printStackTrace();
         }
+        cmd.stats().record(receivedAt, started, System.nanoTime(), WriteCoalescer.getWrittenBytes() - writtenBefore);
         return;
     }
 
     private void com_NOUSER_LIST(Attributes attrs) {                                                                                        //<LIST> initial client request for the list of game servers
-        List<String> servers = ServerMain.hzConfiguration.getList(String.class, "ServerList.Server", new ArrayList<>());                    //read server list from the configuration
-        StringJoiner sj = new StringJoiner(" ", "<LIST>", "</LIST>");                                                                       //format the resulting XML containing server LIST
-        servers.forEach(s -> sj.add(String.format("<SERVER host=\"%s\"%s/>", s, ServerMain.hzConfiguration.getString(String.format("ServerList.Server(%d)[@first]", servers.indexOf(s)), "").transform(f -> f.isEmpty() ? "" : " first=\"" + f + "\"")))); //магия рептилий
-        ch.writeAndFlush(sj.toString());
+        WriteCoalescer.write(ch, ServerConfig.get().listReply());                                                                           //the reply is rendered once per the config change
+        WriteCoalescer.flushNow(ch);
         ch.close();                                                                                                                         //we don't need a sniff socket any more
         return;
     }
@@ -153,8 +205,7 @@ public class CommandProcessor extends DefaultHandler {
 
     private void com_GAME_CHAT(Attributes attrs) {                                                                                          //chat server host request comes from a game channel
         logger.debug("processing <CHAT/> command from %s", ch.attr(AttributeKey.valueOf("chStr")).get());
-        String xmlReply = String.format("<CHAT server=\"%s\"/>", ServerMain.hzConfiguration.getString("ServerList.ChatServer", StringUtils.EMPTY)); //get and send chat server host from the configuration
-        ch.writeAndFlush(xmlReply);
+        WriteCoalescer.write(ch, ServerConfig.get().chatReply());                                                                           //send chat server host from the configuration
         return;
     }
     private void com_NOUSER_CHAT(Attributes attrs) {                                                                                        //a new CHAT connection from a chat channel arrives
@@ -341,10 +392,4 @@ public class CommandProcessor extends DefaultHandler {
         user.com_POST(t);
         return;
     }
-
-    @Override
-    public void error(SAXParseException e) throws SAXException {                                                                            //this will be called on no-critical errors in XML parsing
-        logger.error("SAX XML parse error: %s", e.getMessage());
-        return;
-    }
 }
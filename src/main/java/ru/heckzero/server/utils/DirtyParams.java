@@ -0,0 +1,33 @@
+package ru.heckzero.server.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+
+public class DirtyParams<E extends Enum<E>> {                                                                                               //the params changed since the last sync, a bit per Params enum constant, only these columns are written to db
+    private final Class<E> type;
+    private final E[] constants;
+    private final long[] bits;
+
+    public DirtyParams(Class<E> type) {
+        this.type = type;
+        this.constants = type.getEnumConstants();
+        this.bits = new long[(constants.length + 63) >>> 6];
+        return;
+    }
+
+    public synchronized void mark(E param) {bits[param.ordinal() >>> 6] |= 1L << param.ordinal();}                                          //the shift distance is taken mod 64
+    public synchronized void markAll(Collection<E> params) {params.forEach(this::mark);}                                                    //return the drained params back, their sync has failed
+    public synchronized boolean isDirty(E param) {return (bits[param.ordinal() >>> 6] & 1L << param.ordinal()) != 0;}
+    public synchronized boolean isDirty() {return Arrays.stream(bits).anyMatch(word -> word != 0L);}
+
+    public synchronized EnumSet<E> drain() {                                                                                                //get the changed params and clear the bits
+        EnumSet<E> dirty = EnumSet.noneOf(type);
+        for (int i = 0; i < bits.length; i++) {
+            for (long word = bits[i]; word != 0L; word &= word - 1)                                                                         //iterate over the set bits only
+                dirty.add(constants[(i << 6) + Long.numberOfTrailingZeros(word)]);
+            bits[i] = 0L;
+        }
+        return dirty;
+    }
+}
@@ -4,16 +4,21 @@ import org.apache.commons.beanutils.converters.DoubleConverter;
 import org.apache.commons.beanutils.converters.IntegerConverter;
 import org.apache.commons.beanutils.converters.LongConverter;
 import org.apache.commons.beanutils.converters.StringConverter;
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.persistence.Transient;
+import java.lang.invoke.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.List;
-import java.util.Objects;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class ParamUtils {
     private static final Logger logger = LogManager.getFormatterLogger();
@@ -23,77 +28,282 @@ public class ParamUtils {
     private static final LongConverter longConv = new LongConverter(0L);
     private static final DoubleConverter doubleConv = new DoubleConverter(0D);
 
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);                                        //the accessors are adapted to the erased types once, so they are called with invokeExact()
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final ClassValue<ParamAccessors> accessors = new ClassValue<>() {                                                        //the accessor tables, built once per class
+        @Override
+        protected ParamAccessors computeValue(Class<?> type) {return new ParamAccessors(type);}
+    };
+
+    @FunctionalInterface
+    interface Getter {                                                                                                                      //a param reader, ParamsXml uses them directly
+        Object get(Object target) throws Throwable;
+    }
+
+    private record Setter(Class<?> type, MethodHandle handle, MethodHandle exact, boolean stored) { }                                       //a field, the value is converted to its type before setting, exact takes the field type as is, stored - the field is a db column
+
+    private static final class ParamAccessors {                                                                                             //param name -> how to read it: a field of the class, a field of its embedded params object or a getParam_<name>() method
+        private final Class<?> type;
+        private final Map<String, Getter> getters = new ConcurrentHashMap<>();                                                              //resolved lazily by a param name, the misses are remembered too
+        private final Map<String, Setter> setters = new ConcurrentHashMap<>();
+        private volatile Getter[] byOrdinal;                                                                                                //the getters indexed by the Params enum ordinal, the class has a single Params enum
+        private volatile Setter[] settersByOrdinal;
+
+        private ParamAccessors(Class<?> type) {
+            this.type = type;
+            return;
+        }
+
+        private Getter getter(String name) {return getters.computeIfAbsent(name, n -> resolveGetter(type, n));}
+        private Getter getter(Enum<?> param) {
+            Getter[] table = byOrdinal;
+            if (table == null || table.length <= param.ordinal()) {                                                                         //the first access, a race just builds the same table twice
+                Enum<?>[] constants = param.getDeclaringClass().getEnumConstants();
+                table = new Getter[constants.length];
+                for (Enum<?> constant : constants)
+                    table[constant.ordinal()] = getter(constant.toString());
+                byOrdinal = table;
+            }
+            return table[param.ordinal()];
+        }
+        private Setter setter(String name) {return setters.computeIfAbsent(name, n -> resolveSetter(type, n));}
+        private Setter setter(Enum<?> param) {
+            Setter[] table = settersByOrdinal;
+            if (table == null || table.length <= param.ordinal()) {                                                                         //the missing fields are null in the table
+                Enum<?>[] constants = param.getDeclaringClass().getEnumConstants();
+                table = new Setter[constants.length];
+                for (Enum<?> constant : constants)
+                    table[constant.ordinal()] = setter(constant.toString());
+                settersByOrdinal = table;
+            }
+            return table[param.ordinal()];
+        }
+    }
+
     public static String getParamStr(Object obj, String param) {return Objects.toString(getParam(obj, param), StringUtils.EMPTY);}          //get user param value as different type
-    public static int getParamInt(Object obj, String param) {return intConv.convert(int.class, getParam(obj, param));}
-    public static long getParamLong(Object obj, String param) {return longConv.convert(long.class, getParam(obj, param));}
-    public static double getParamDouble(Object obj, String param) {return doubleConv.convert(double.class, getParam(obj, param));}
+    public static int getParamInt(Object obj, String param) {return toInt(getParam(obj, param));}
+    public static long getParamLong(Object obj, String param) {return toLong(getParam(obj, param));}
+    public static double getParamDouble(Object obj, String param) {return toDouble(getParam(obj, param));}
     public static String getParamXml(Object obj, String param) {return getParamStr(obj, param).transform(s -> !s.isEmpty() ? String.format("%s=\"%s\"", param, s) : StringUtils.EMPTY); } //get param as XML attribute, will return an empty string if value is empty and appendEmpty == false
 
-    public static boolean setParam(Object obj, String paramName, Object paramValue) {                                                       //set a paramName to paramValue for the obj instance
+    public static String getParamStr(Object obj, Enum<?> param) {return Objects.toString(getParam(obj, param), StringUtils.EMPTY);}         //the same by a Params enum constant, it's an array index instead of a map lookup
+    public static int getParamInt(Object obj, Enum<?> param) {return toInt(getParam(obj, param));}
+    public static long getParamLong(Object obj, Enum<?> param) {return toLong(getParam(obj, param));}
+    public static double getParamDouble(Object obj, Enum<?> param) {return toDouble(getParam(obj, param));}
+
+    private static int toInt(Object value) {return value instanceof Integer i ? i : intConv.convert(int.class, value);}                     //the converters are skipped when the value already has the right type
+    private static long toLong(Object value) {return value instanceof Long l ? l : longConv.convert(long.class, value);}
+    private static double toDouble(Object value) {return value instanceof Double d ? d : doubleConv.convert(double.class, value);}
+
+    public static boolean setParam(Object obj, String paramName, Object paramValue) {return setParam(obj, accessors.get(obj.getClass()).setter(paramName), paramName, paramValue);} //set a paramName to paramValue for the obj instance
+    public static boolean setParam(Object obj, Enum<?> param, Object paramValue) {return setParam(obj, accessors.get(obj.getClass()).setter(param), param.toString(), paramValue);}
+
+    public static boolean setInt(Object obj, Enum<?> param, int value) {                                                                    //typed setters, a field of the same type is set as is, other fields get the converted value
+        Setter setter = accessors.get(obj.getClass()).setter(param);
+        if (setter == null || setter.type != int.class)
+            return setParam(obj, setter, param.toString(), value);
         try {
-            Field field = FieldUtils.getField(obj.getClass(), paramName, true);                                                             //find a field with a name paramName
-            Class<?> fieldType = field.getType();                                                                                           //found field type
+            setter.exact.invokeExact(obj, value);
+            return true;
+        } catch (Throwable e) {
+            logger.error("error setting param %s to value %d for class %s: %s:%s", param, value, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return false;
+    }
+
+    public static boolean setLong(Object obj, Enum<?> param, long value) {
+        Setter setter = accessors.get(obj.getClass()).setter(param);
+        if (setter == null || setter.type != long.class)
+            return setParam(obj, setter, param.toString(), value);
+        try {
+            setter.exact.invokeExact(obj, value);
+            return true;
+        } catch (Throwable e) {
+            logger.error("error setting param %s to value %d for class %s: %s:%s", param, value, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return false;
+    }
+
+    public static boolean setDouble(Object obj, Enum<?> param, double value) {
+        Setter setter = accessors.get(obj.getClass()).setter(param);
+        if (setter == null || setter.type != double.class)
+            return setParam(obj, setter, param.toString(), value);
+        try {
+            setter.exact.invokeExact(obj, Math.round(value * 1000D) / 1000D);                                                               //the same 3 digits precision the converted values get
+            return true;
+        } catch (Throwable e) {
+            logger.error("error setting param %s to value %f for class %s: %s:%s", param, value, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return false;
+    }
+
+    public static boolean setString(Object obj, Enum<?> param, String value) {
+        Setter setter = accessors.get(obj.getClass()).setter(param);
+        if (setter == null || setter.type != String.class)
+            return setParam(obj, setter, param.toString(), value);
+        try {
+            setter.exact.invokeExact(obj, value);
+            return true;
+        } catch (Throwable e) {
+            logger.error("error setting param %s to value %s for class %s: %s:%s", param, value, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return false;
+    }
+
+    public static Map<String, Object> getStoredParams(Object obj, Collection<? extends Enum<?>> params, String pathPrefix) {                //the values of the params stored in db columns keyed by their property paths, the transient and computed params are skipped
+        ParamAccessors classAccessors = accessors.get(obj.getClass());
+        Map<String, Object> stored = new LinkedHashMap<>();
+        for (Enum<?> param : params) {
+            Setter setter = classAccessors.setter(param);
+            if (setter != null && setter.stored)
+                stored.put(pathPrefix + param, get(obj, classAccessors.getter(param)));
+        }
+        return stored;
+    }
 
-            if (paramValue == null || fieldType.equals(paramValue.getClass())) {                                                            //if they are equals, just set the value
-                field.set(obj, paramValue);
+    private static boolean setParam(Object obj, Setter setter, String paramName, Object paramValue) {
+        if (setter == null) {
+            logger.error("can't set param %s for object of type %s, there is no such field", paramName, obj.getClass().getSimpleName());
+            return false;
+        }
+        try {
+            Class<?> fieldType = setter.type;                                                                                               //found field type
+            if (paramValue == null && fieldType.isPrimitive()) {                                                                            //Field.set() would have thrown IllegalArgumentException
+                logger.error("can't set param %s of type %s to null for object of type %s", paramName, fieldType.getSimpleName(), obj.getClass().getSimpleName());
+                return false;
+            }
+            if (paramValue == null || fieldType.equals(paramValue.getClass()) || ClassUtils.primitiveToWrapper(fieldType).equals(paramValue.getClass())) { //if they are equals (or it's a boxed primitive), just set the value
+                setter.handle.invokeExact(obj, paramValue);
                 return true;
             }
-            String strValue = paramValue instanceof String ? (String)paramValue : paramValue.toString();                                    //cast or convert paramValue to String
-            return switch (fieldType.getSimpleName()) {                                                                                     //a short field type name (Integer, String, etc.)
-                case "String" -> {field.set(obj, strValue); yield true;}                                                                    //just set a String value to String field type
-                case "int", "Integer" -> {field.set(obj, NumberUtils.isParsable(strValue) ? Math.toIntExact(Math.round(Double.parseDouble(strValue))) : 0); yield true;} //convert String value to field type
-                case "long", "Long" -> {field.set(obj, NumberUtils.isParsable(strValue) ? Math.round(Double.parseDouble(strValue)) : 0L); yield true;}
-                case "double", "Double" -> {field.set(obj, NumberUtils.isParsable(strValue) ? Math.round(Double.parseDouble(strValue) * 1000D) / 1000D  : 0D); yield true;}
-                default -> {logger.error("can't set param %s for object of type %s, param type '%s' is not supported", paramName, obj.getClass().getSimpleName(), fieldType.getSimpleName()); yield false;}
-            };
-        } catch (SecurityException | IllegalAccessException e) {
+            Object value = paramValue instanceof Number number ? fromNumber(fieldType, number) : fromString(fieldType, paramValue.toString()); //a number is converted without a String round trip
+            if (value == null) {
+                logger.error("can't set param %s for object of type %s, param type '%s' is not supported", paramName, obj.getClass().getSimpleName(), fieldType.getSimpleName());
+                return false;
+            }
+            setter.handle.invokeExact(obj, value);
+            return true;
+        } catch (Throwable e) {
             logger.error("error setting param %s to value %s for class %s: %s:%s", paramName, paramValue, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
         }
 
         return false;
     }
 
+    private static Object fromString(Class<?> fieldType, String strValue) {                                                                 //convert String value to field type
+        return switch (fieldType.getSimpleName()) {                                                                                         //a short field type name (Integer, String, etc.)
+            case "String" -> strValue;                                                                                                      //just set a String value to String field type
+            case "int", "Integer" -> NumberUtils.isParsable(strValue) ? Math.toIntExact(Math.round(Double.parseDouble(strValue))) : 0;
+            case "long", "Long" -> NumberUtils.isParsable(strValue) ? Math.round(Double.parseDouble(strValue)) : 0L;
+            case "double", "Double" -> NumberUtils.isParsable(strValue) ? Math.round(Double.parseDouble(strValue) * 1000D) / 1000D : 0D;
+            default -> null;
+        };
+    }
 
-    private static Object getParam(Object obj, String paramName) {                                                                          //try to find a field with the name equals to paramName
-        List<Field> fieldList = FieldUtils.getAllFieldsList(obj.getClass());                                                                //gets all fields of the given class and its parents (if any)
-        logger.debug("phase1: try to find a param %s from the list of the fields", paramName);
-        Field paramField = fieldList.stream().filter(f -> f.getName().equals(paramName)).findFirst().orElse(null);                          //try to find a field with a name of paramName in the fieldList
-        if (paramField != null)                                                                                                             //Field found in obj;
-            return readField(obj, paramField);                                                                                              //try to read value of that field or return null in case of read exception
+    private static Object fromNumber(Class<?> fieldType, Number number) {                                                                   //the same rounding as for the String values
+        boolean fractional = number instanceof Double || number instanceof Float;
+        return switch (fieldType.getSimpleName()) {
+            case "String" -> number.toString();
+            case "int", "Integer" -> Math.toIntExact(fractional ? Math.round(number.doubleValue()) : number.longValue());
+            case "long", "Long" -> fractional ? Math.round(number.doubleValue()) : number.longValue();
+            case "double", "Double" -> Math.round(number.doubleValue() * 1000D) / 1000D;
+            default -> null;
+        };
+    }
 
-        logger.debug("phase2: try to find a field %s inside a params object", paramName);
-        Field paramsField = fieldList.stream().filter(f -> f.getName().equals("params")).findFirst().orElse(null);                          //get a field by name "params" from the fieldList
-        if (paramsField != null) {                                                                                                          //the field "params" is found
-            Object paramsObject = readField(obj, paramsField);                                                                              //get the params object this field refers to
-            if (paramsObject == null)                                                                                                       //we couldn't get the params object
-                return null;
-            paramField = FieldUtils.getAllFieldsList(paramsObject.getClass()).stream().filter(f -> f.getName().equals(paramName)).findFirst().orElse(null); //search a field of paramName in a list of paramsObject fields
-            if (paramField != null)                                                                                                         //found
-                return readField(paramsObject, paramField);                                                                                 //try to read and return its value
+    static Getter[] getters(Class<?> type, Enum<?>[] params) {                                                                              //the getters of a param set, bound to the class
+        ParamAccessors classAccessors = accessors.get(type);
+        Getter[] getters = new Getter[params.length];
+        for (int i = 0; i < params.length; i++)
+            getters[i] = classAccessors.getter(params[i]);
+        return getters;
+    }
+
+    private static Object getParam(Object obj, String paramName) {return get(obj, accessors.get(obj.getClass()).getter(paramName));}
+    private static Object getParam(Object obj, Enum<?> param) {return get(obj, accessors.get(obj.getClass()).getter(param));}
+
+    private static Object get(Object obj, Getter getter) {
+        try {
+            return getter.get(obj);
+        } catch (Throwable e) {
+            logger.error("can't read a param of object %s: %s:%s", obj, e.getClass().getSimpleName(), e.getMessage());
         }
+        return null;
+    }
+
+    private static Getter resolveGetter(Class<?> type, String paramName) {                                                                  //find out how to read the param, it's done once per a class and a param name
+        try {
+            logger.debug("phase1: try to find a param %s from the list of the fields of %s", paramName, type.getSimpleName());
+            Field paramField = findField(type, paramName);
+            if (paramField != null) {                                                                                                       //the field is read by its VarHandle
+                MethodHandle getter = fieldGetter(paramField);
+                return target -> getter.invokeExact(target);
+            }
+
+            logger.debug("phase2: try to find a field %s inside a params object", paramName);
+            Field paramsField = findField(type, "params");
+            if (paramsField != null) {                                                                                                      //the field "params" is found, look for the param in its declared type
+                paramField = findField(paramsField.getType(), paramName);
+                if (paramField != null) {
+                    MethodHandle paramsGetter = fieldGetter(paramsField);
+                    MethodHandle getter = fieldGetter(paramField);
+                    return target -> {
+                        Object paramsObject = paramsGetter.invokeExact(target);                                                             //get the params object the field refers to
+                        return paramsObject != null ? getter.invokeExact(paramsObject) : null;
+                    };
+                }
+            }
 
-        return getParamByInvokingMethod(obj, paramName);                                                                                    //try to get the param by invoking a method of getParam_paramName() on the obj
+            logger.debug("phase3: try to find a method getParam_%s", paramName);
+            Method method = findMethod(type, "getParam_" + paramName);                                                                      //a computed param, the method is bound to a Function like the command handlers
+            if (method != null) {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+                MethodHandle methodHandle = lookup.unreflect(method);
+                MethodType functionType = MethodType.methodType(Object.class, Object.class);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class), functionType, methodHandle, methodHandle.type().wrap());
+                @SuppressWarnings("unchecked")
+                Function<Object, Object> function = (Function<Object, Object>)site.getTarget().invoke();
+                return function::apply;
+            }
+        } catch (Throwable e) {
+            logger.error("can't bind an accessor of param %s of the class %s: %s:%s", paramName, type.getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+        }
+        return target -> {
+            logger.warn("can't get or compute param %s, of the class %s: there is no such field or method", paramName, target.getClass().getSimpleName());
+            return null;
+        };
     }
 
-    private static Object getParamByInvokingMethod(Object obj, String paramName) {                                                          //get param by calling getParam_param() method of obj
-        String methodName = String.format("getParam_%s", paramName);
+    private static Setter resolveSetter(Class<?> type, String paramName) {                                                                  //a field only, the computed params can't be set
         try {
-            Method method = obj.getClass().getDeclaredMethod(methodName);                                                                   //try to get a method and invoke it
-            method.setAccessible(true);
-            return method.invoke(obj);
+            Field field = FieldUtils.getField(type, paramName, true);
+            if (field == null || Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+                return null;
+            VarHandle varHandle = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup()).unreflectVarHandle(field);
+            MethodHandle setter = varHandle.toMethodHandle(VarHandle.AccessMode.SET);
+            boolean stored = !Modifier.isTransient(field.getModifiers()) && !field.isAnnotationPresent(Transient.class);                    //a db column
+            return new Setter(field.getType(), setter.asType(SETTER_TYPE), setter.asType(MethodType.methodType(void.class, Object.class, field.getType())), stored);
         } catch (Exception e) {
-            logger.warn("can't get or compute param %s, of the class %s: %s:%s", paramName, obj.getClass().getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
+            logger.error("can't bind a setter of param %s of the class %s: %s:%s", paramName, type.getSimpleName(), e.getClass().getSimpleName(), e.getMessage());
         }
         return null;
     }
 
-    private static Object readField(Object target, Field field) {
-        try {
-            return FieldUtils.readField(field, target, true);
-        } catch (IllegalAccessException e) {
-            logger.error("can't read a field %s of object %s: %s", field.getName(), target, e.getMessage());
+    private static MethodHandle fieldGetter(Field field) throws IllegalAccessException {
+        VarHandle varHandle = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup()).unreflectVarHandle(field);
+        return varHandle.toMethodHandle(VarHandle.AccessMode.GET).asType(GETTER_TYPE);
+    }
+
+    private static Field findField(Class<?> type, String name) {                                                                            //an instance field of the class or its parents
+        return FieldUtils.getAllFieldsList(type).stream().filter(f -> f.getName().equals(name) && !Modifier.isStatic(f.getModifiers())).findFirst().orElse(null);
+    }
+
+    private static Method findMethod(Class<?> type, String name) {                                                                          //a no-arg method declared by the class or its parents
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod(name);
+            } catch (NoSuchMethodException ignored) { }
         }
         return null;
     }
-
 }
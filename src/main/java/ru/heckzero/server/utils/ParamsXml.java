@@ -0,0 +1,85 @@
+package ru.heckzero.server.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+
+public final class ParamsXml {                                                                                                              //writes a fixed set of params as XML attributes straight into a StringBuilder, one instance per (class, param set) is built at the class initialization
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final Enum<?>[] params;
+    private final String[] prefixes;                                                                                                        //' name="' per param, the attribute name may differ from the param name
+    private final ClassValue<ParamUtils.Getter[]> getters = new ClassValue<>() {                                                            //the param accessors are bound once per runtime class (a subclass or a proxy may have its own params)
+        @Override
+        protected ParamUtils.Getter[] computeValue(Class<?> type) {return ParamUtils.getters(type, params);}
+    };
+
+    private ParamsXml(Collection<? extends Enum<?>> params, Map<? extends Enum<?>, String> names) {
+        this.params = params.toArray(new Enum<?>[0]);
+        this.prefixes = new String[this.params.length];
+        for (int i = 0; i < this.params.length; i++)
+            prefixes[i] = " " + names.getOrDefault(this.params[i], this.params[i].toString()) + "=\"";
+        return;
+    }
+
+    public static ParamsXml of(Collection<? extends Enum<?>> params) {return new ParamsXml(params, Map.of());}
+    public static ParamsXml of(Collection<? extends Enum<?>> params, Map<? extends Enum<?>, String> names) {return new ParamsXml(params, names);}  //names - the attributes named differently from their params (intu -> int)
+
+    public StringBuilder append(StringBuilder sb, Object obj) {                                                                             //append ' name="value"' for every param having a non-empty value
+        ParamUtils.Getter[] objGetters = getters.get(obj.getClass());
+        for (int i = 0; i < objGetters.length; i++) {
+            Object value;
+            try {
+                value = objGetters[i].get(obj);
+            } catch (Throwable e) {
+                logger.error("can't read param %s of object %s: %s:%s", params[i], obj, e.getClass().getSimpleName(), e.getMessage());
+                continue;
+            }
+            if (value == null)
+                continue;
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {                      //numbers are appended without being converted to a String first
+                sb.append(prefixes[i]).append(((Number)value).longValue()).append('"');
+                continue;
+            }
+            if (value instanceof Double d) {
+                sb.append(prefixes[i]).append(d.doubleValue()).append('"');
+                continue;
+            }
+            CharSequence str = value instanceof CharSequence cs ? cs : value.toString();
+            if (str.length() == 0)                                                                                                          //the empty params are omitted
+                continue;
+            escape(sb.append(prefixes[i]), str).append('"');
+        }
+        return sb;
+    }
+
+    public String toXml(Object obj) {                                                                                                       //the attributes separated by a space without the leading one
+        StringBuilder sb = append(new StringBuilder(64 + params.length * 16), obj);
+        return sb.length() > 0 ? sb.substring(1) : "";
+    }
+
+    private static StringBuilder escape(StringBuilder sb, CharSequence s) {                                                                 //escape the markup characters of an attribute value, the values are stored unescaped, so an '&' is always escaped and the value round-trips
+        int len = s.length();
+        int i = 0;
+        while (i < len && !needsEscaping(s.charAt(i)))
+            i++;
+        if (i == len)                                                                                                                       //the most values have nothing to escape
+            return sb.append(s);
+        sb.append(s, 0, i);
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("&quot;");
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                case '&' -> sb.append("&amp;");
+                default -> sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    private static boolean needsEscaping(char c) {return c == '"' || c == '<' || c == '>' || c == '&';}
+}
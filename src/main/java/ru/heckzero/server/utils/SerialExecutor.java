@@ -0,0 +1,150 @@
+package ru.heckzero.server.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SerialExecutor implements Executor {                                                                                           //runs the submitted tasks one by one in the submission order on top of a shared (possibly unbounded) executor
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final LongAdder pendingTasks = new LongAdder();                                                                          //tasks submitted to all the serial executors and not finished yet, the server shutdown waits for them to complete
+    private volatile Executor executor;                                                                                                     //the executor to run the tasks on, it may be another SerialExecutor (a user mailbox)
+    private final Executor fallback;                                                                                                        //runs the non-droppable tasks when the executor rejects them, they run in the rejected thread if there is no fallback or it rejects them too
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);                                                                       //a drain task has been submitted to the executor and has not finished yet
+
+    public interface Droppable extends Runnable {                                                                                           //a task that has to release its resources if it's dropped
+        void dropped();
+    }
+
+    private record NonDroppable(Runnable task) implements Runnable {                                                                        //a task that must run even if the executor is shut down or overloaded
+        @Override
+        public void run() {task.run();}
+    }
+
+    private final class Drain implements Droppable {                                                                                        //a drain may be dropped by the executor if it's another SerialExecutor
+        @Override
+        public void run() {drain();}
+        @Override
+        public void dropped() {rejected();}
+    }
+
+    public SerialExecutor(Executor executor) {this(executor, null);}
+
+    public SerialExecutor(Executor executor, Executor fallback) {
+        this.executor = executor;
+        this.fallback = fallback;
+        return;
+    }
+
+    @Override
+    public void execute(Runnable task) {                                                                                                    //the task is dropped if the executor rejects it, a RejectedExecutionException is thrown then
+        if (!submit(task))
+            throw new RejectedExecutionException("the serial task has been rejected by the executor");
+        return;
+    }
+
+    public void executeNonDroppable(Runnable task) {                                                                                        //the task will run in order with the other ones even if the executor rejects it (a channel disconnect must always log the user out)
+        submit(new NonDroppable(task));
+        return;
+    }
+
+    public void setExecutor(Executor executor) {                                                                                            //move the execution to another executor, the tasks submitted so far still run in order, the rest of them on the new executor
+        this.executor = executor;
+        return;
+    }
+
+    public int getQueueSize() {return tasks.size();}
+    public static long getPendingTasks() {return pendingTasks.sum();}                                                                       //it's exact when no tasks are being submitted or completed concurrently
+
+    private boolean submit(Runnable task) {                                                                                                 //returns false if the task has been dropped
+        pendingTasks.increment();
+        tasks.add(task);
+        if (scheduled.compareAndSet(false, true))                                                                                           //nobody is draining the queue, start a drain
+            return startDrain() || task instanceof NonDroppable;                                                                            //nobody else could have taken the task, so it has been dropped unless it's a non-droppable one
+        return true;
+    }
+
+    private boolean startDrain() {                                                                                                          //must be called with scheduled set, returns false if the executor has rejected the drain
+        try {
+            executor.execute(new Drain());
+            return true;
+        } catch (RejectedExecutionException e) {                                                                                            //the executor is shut down or its queue is full
+            rejected();
+            return false;
+        }
+    }
+
+    private void rejected() {                                                                                                               //the drain has been rejected, drop the queued tasks except the non-droppable ones, the drain stays scheduled until they are done
+        List<Runnable> kept = new ArrayList<>();
+        int dropped = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (task instanceof NonDroppable) {
+                kept.add(task);
+                continue;
+            }
+            if (task instanceof Droppable droppable)
+                droppable.dropped();
+            dropped++;
+        }
+        pendingTasks.add(-dropped);
+        if (dropped > 0)
+            logger.warn("the executor has rejected the serial tasks, %d tasks have been dropped", dropped);
+        Runnable runKept = () -> {
+            kept.forEach(this::runTask);
+            finishDrain();
+        };
+        if (kept.isEmpty()) {
+            runKept.run();
+            return;
+        }
+        try {
+            if (fallback == null)
+                throw new RejectedExecutionException("no fallback executor");
+            fallback.execute(runKept);
+        } catch (RejectedExecutionException e) {                                                                                            //the server is shutting down, there is nowhere to run them but here
+            runKept.run();
+        }
+        return;
+    }
+
+    private void drain() {
+        Executor drainExecutor = executor;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+            if (executor != drainExecutor) {                                                                                                //the executor has been changed by the task, continue draining on the new one, the drain is still scheduled
+                startDrain();
+                return;
+            }
+        }
+        finishDrain();
+        return;
+    }
+
+    private void finishDrain() {
+        scheduled.set(false);
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true))                                                                       //a task has been added after the queue has been seen empty
+            startDrain();
+        return;
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.error("serial task has thrown an exception: %s:%s", e.getClass().getSimpleName(), e.getMessage());
+        } finally {
+            pendingTasks.decrement();
+        }
+        return;
+    }
+}
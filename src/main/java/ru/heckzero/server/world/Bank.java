@@ -16,7 +16,7 @@ import ru.heckzero.server.items.ItemsDct;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserManager;
 import ru.heckzero.server.utils.HistoryCodes;
-import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.Entity;
 import javax.persistence.PrimaryKeyJoinColumn;
@@ -24,8 +24,6 @@ import javax.persistence.Table;
 import javax.persistence.Transient;
 import java.util.EnumSet;
 import java.util.Map;
-import java.util.StringJoiner;
-import java.util.stream.Collectors;
 
 @Entity(name = "Bank")
 @Table(name = "banks")
@@ -33,6 +31,7 @@ import java.util.stream.Collectors;
 public class Bank extends Building {
     private static final Logger logger = LogManager.getFormatterLogger();
     private static final EnumSet<Params> bankParams = EnumSet.of(Params.cash, Params.cost, Params.cost2, Params.cost3, Params.cost_to200, Params.cost_to300, Params.cost_to400, Params.cost_to500,Params.free, Params.tkey, Params.key);
+    private static final ParamsXml bankXml = ParamsXml.of(bankParams, Map.of(Params.cash, "cash1"));                                        //the params XML serializer, cash is sent as cash1
 
     public static Bank getBank(int id) {                                                                                                    //try to get a Bank instance by building id
         try (Session session = ServerMain.sessionFactory.openSession()) {
@@ -68,9 +67,6 @@ public class Bank extends Building {
 
     synchronized public boolean decrementFreeCells() {return free-- > 0 && sync();}                                                         //decrement free cells count
 
-    @Override
-    protected String getParamXml(Params param) {return ParamUtils.getParamXml(this, param.toString()).transform(s -> s.startsWith("cash") ? s.replace("cash", "cash1") : s);}
-
     public Item createCell(User user, String password) {                                                                                    //create a bank cell and return a key item for that cell
         BankCell bankCell = new BankCell(this.getId(), user.getId(), password);                                                             //create a new bank cell
         if (!bankCell.sync())
@@ -91,9 +87,7 @@ public class Bank extends Building {
     }
 
     public String bkXml() {                                                                                                                 //XML formatted bank data
-        StringJoiner sj = new StringJoiner("", "", "</BK>");
-        sj.add(bankParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<BK ", ">")));   //add XML bank params
-        return sj.toString();
+        return bankXml.append(new StringBuilder(512).append("<BK"), this).append("></BK>").toString();                                      //add XML bank params
     }
 
     public void processCmd(User user, int put, int get, int cost, int cost2, int buy, String p, String newpsw, String newemail, int go, int sell, long d, int s, int c, long f, long a, int newkey, int addsection, int extend, int check_sell, int tr, int cell2) {
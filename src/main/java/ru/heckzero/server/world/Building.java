@@ -10,10 +10,10 @@ import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.items.ItemBox;
 import ru.heckzero.server.utils.History;
 import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.*;
 import java.util.EnumSet;
-import java.util.stream.Collectors;
 
 @Entity(name = "Building")
 @Table(name = "locations_b")
@@ -27,6 +27,7 @@ public class Building {
 
     public enum Params {X, Y, Z, cash, txt, maxHP, HP, name, upg, maxl, repair, clan,   d1,   ds, city, p1, p2, clon, bigmap_city, bigmap_shown,   cost, cost2, cost3, cost_to200, cost_to300, cost_to400, cost_to500, free, tkey, key, m1, o, vip, t, sv}
     private static final EnumSet<Params> bldParams = EnumSet.of(Params.X, Params.Y, Params.Z, Params.txt, Params.maxHP, Params.HP, Params.name, Params.upg, Params.maxl, Params.repair, Params.clan);
+    private static final ParamsXml bldXml = ParamsXml.of(bldParams);                                                                        //the params XML serializer
 
     @Transient protected ItemBox itemBox = null;                                                                                              //building Item box
 
@@ -68,10 +69,9 @@ public class Building {
     public String getLogDescription() {return String.format("%s[%d/%d]", txt, getX(), getY());}
 
     public Location getLocation()           {return location;}                                                                              //get the location this Building belongs to
-    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param.toString());};
-    public int getParamInt(Params param)    {return intConv.convert(Integer.class, ParamUtils.getParamInt(this, param.toString()));}
-    protected String getParamXml(Params param) {return ParamUtils.getParamXml(this, param.toString()); }                                    //get param as XML attribute, will return an empty string if value is empty and appendEmpty == false
-    protected String getXml() {return bldParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<B ", "/>"));}
+    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param);};
+    public int getParamInt(Params param)    {return intConv.convert(Integer.class, ParamUtils.getParamInt(this, param));}
+    protected StringBuilder appendXml(StringBuilder sb) {return bldXml.append(sb.append("<B"), this).append("/>");}                         //append the building XML representation
 
     public ItemBox getItemBox() {return itemBox == null ? (itemBox = ItemBox.init(ItemBox.BoxType.BUILDING, id)) : itemBox;}          //get the building itembox, initialize if needed
 
@@ -1,6 +1,5 @@
 package ru.heckzero.server.world;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Hibernate;
@@ -14,6 +13,7 @@ import ru.heckzero.server.items.ItemTemplate;
 import ru.heckzero.server.items.ItemsDct;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.utils.HistoryCodes;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -22,7 +22,6 @@ import javax.persistence.Table;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Semaphore;
-import java.util.stream.Collectors;
 
 @Entity(name = "CityHall")
 @Table(name = "city_hall")
@@ -30,6 +29,7 @@ import java.util.stream.Collectors;
 public class CityHall extends Building {
     private static final Logger logger = LogManager.getFormatterLogger();
     private static final EnumSet<Params> cityHallParams = EnumSet.of(Params.p1, Params.p2, Params.d1, Params.ds, Params.cash, Params.m1, Params.o, Params.vip, Params.t, Params.sv /* Params.mod, Params.paint, Params.color, Params.bot*/);
+    private static final ParamsXml cityHallXml = ParamsXml.of(cityHallParams);                                                              //the params XML serializer
     private static final Semaphore semBuyLic = new Semaphore(1, true);                                                                      //license buying semaphore
     private static final String [][] weddingItems = {{"bk2-f11", "bk2-f14", "bk2-f15", "bk2-f15", "bk2-f16", "bk2-f17"}, {"bk2-f1", "bk2-f2", "bk2-f3", "bk2-f4"}};	//women's[0] and man's[1] list of template items names
 
@@ -86,9 +86,7 @@ public class CityHall extends Building {
     }
 
     public String chXml() {                                                                                                                 //XML formatted city hall data
-        StringJoiner sj = new StringJoiner("", "", "</MR>");
-        sj.add(cityHallParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<MR ", ">")));//add XML bank params
-        return sj.toString();
+        return cityHallXml.append(new StringBuilder(256).append("<MR"), this).append("></MR>").toString();                                  //add XML city hall params
     }
 
     public void buyLicsense(int licId, int numLic, User user) {                                                                             //runs in a separate thread to avoid blocking precious netty threads
@@ -9,6 +9,7 @@ import org.hibernate.Session;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
 import ru.heckzero.server.ServerMain;
 import ru.heckzero.server.user.User;
 
@@ -16,8 +17,6 @@ import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.StringJoiner;
-import java.util.stream.Collectors;
 
 @Entity(name = "Location")
 @Table(name = "locations")
@@ -27,6 +26,7 @@ public class Location {
     private static final Logger logger = LogManager.getFormatterLogger();
     public enum Params {X, Y, tm, t, m, n, r, name, b, z, battlemap_f, danger, o, p, repair, monsters};
     private static final EnumSet<Params> golocParams = EnumSet.of(Params.X, Params.Y, Params.tm, Params.t, Params.m, Params.n, Params.r, Params.name, Params.b, Params.z, Params.o, Params.p, Params.repair);
+    private static final ParamsXml golocXml = ParamsXml.of(golocParams);                                                                    //the params XML serializer
 
     private static final int SPAN = 360;                                                                                                    //the world's horizontal and vertical dimension
     private static final int DEF_LOC_TIME = 5;                                                                                              //default location wait time in sec.
@@ -111,16 +111,14 @@ public class Location {
         return ArrayUtils.get(ArrayUtils.get(locNums, row), col, ArrayUtils.INDEX_NOT_FOUND);                                               //get locNum value or -1 if indexes are out of bounds
     }
 
-    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param.toString());}                                        //get user param value as different type
-    public int getParamInt(Params param) {return ParamUtils.getParamInt(this, param.toString());}
-    private String getParamXml(Params param) {return ParamUtils.getParamXml(this, param.toString());}                                       //get param as XML attribute, will return an empty string if value is empty and appendEmpty == false
+    public String getParamStr(Params param) {return ParamUtils.getParamStr(this, param);}                                                   //get user param value as different type
+    public int getParamInt(Params param) {return ParamUtils.getParamInt(this, param);}
     public String getLogDescription() {return String.format("%s[%d/%d]", getName(), getX(), getY());}
 
     public String getXml() {                                                                                                                //location XML representation
-        StringJoiner sj = new StringJoiner("", "", "</L>");
-        String locationParamsXml = golocParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<L ", ">")); // add location data
-        sj.add(locationParamsXml);
-        buildings.forEach(bld -> sj.add(bld.getXml()));                                                                                     //add buildings data
-        return sj.toString();
+        StringBuilder sb = new StringBuilder(256 + buildings.size() * 256).append("<L");
+        golocXml.append(sb, this).append('>');                                                                                              //add location data
+        buildings.forEach(bld -> bld.appendXml(sb));                                                                                        //add buildings data
+        return sb.append("</L>").toString();
     }
 }
@@ -15,6 +15,7 @@ import ru.heckzero.server.items.ItemsDct;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserManager;
 import ru.heckzero.server.utils.HistoryCodes;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.*;
 import java.util.*;
@@ -26,6 +27,7 @@ import java.util.stream.Collectors;
 public class Portal extends Building {
     private static final Logger logger = LogManager.getFormatterLogger();
     private static final EnumSet<Params> portalParams = EnumSet.of(Params.cash, Params.ds, Params.city, Params.p1, Params.p2);
+    private static final ParamsXml portalXml = ParamsXml.of(portalParams);                                                                  //the params XML serializer
 
     private int ds;                                                                                                                         //discount (%) for citizens arriving to this portal
     private String city;                                                                                                                    //of that city
@@ -110,12 +112,12 @@ public class Portal extends Building {
     }
 
     public String prXml(boolean withWh) {                                                                                                   //XML formatted portal data including routes and warehouse items
-        StringJoiner sj = new StringJoiner("", "", "</PR>");
-        sj.add(portalParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<PR ", ">"))); //add XML portal params
-        sj.add(getXmlRoutes());                                                                                                             //add XML portal routes
+        StringBuilder sb = new StringBuilder(1024).append("<PR");
+        portalXml.append(sb, this).append('>');                                                                                             //add XML portal params
+        sb.append(getXmlRoutes());                                                                                                          //add XML portal routes
         if (withWh)                                                                                                                         //if we should add warehouse content
-            sj.add(getItemBox().getXml());                                                                                                  //add portal warehouse items (resources)
-        return sj.toString();
+            getItemBox().appendXml(sb);                                                                                                     //add portal warehouse items (resources)
+        return sb.append("</PR>").toString();
     }
 
     public ItemBox consumeRes(int userWeight) {                                                                                             //consume portal resources for the teleportation
@@ -1,6 +1,5 @@
 package ru.heckzero.server.world;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Hibernate;
@@ -13,7 +12,7 @@ import ru.heckzero.server.items.ItemsDct;
 import ru.heckzero.server.user.User;
 import ru.heckzero.server.user.UserManager;
 import ru.heckzero.server.utils.HistoryCodes;
-import ru.heckzero.server.utils.ParamUtils;
+import ru.heckzero.server.utils.ParamsXml;
 
 import javax.persistence.Entity;
 import javax.persistence.PrimaryKeyJoinColumn;
@@ -22,9 +21,9 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
-import java.util.StringJoiner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 @Entity(name = "PostOffice")
 @Table(name = "post_offices")
@@ -33,6 +32,28 @@ public class PostOffice extends Building {
     private static final Logger logger = LogManager.getFormatterLogger();
     private static final int DELIVERY_TIME_MIN_SEC = 300, DELIVERY_TIME_MAX_SEC = 1800;                                                     //delivery time in seconds
     private static final EnumSet<Params> postParams = EnumSet.of(Params.cash, Params.p1, Params.p2, Params.d1);
+    private static final ParamsXml postXml = ParamsXml.of(postParams);                                                                      //the params XML serializer
+    private static final Set<Runnable> pendingNotifications = ConcurrentHashMap.newKeySet();                                                //the parcel arrival notifications which haven't been sent yet
+
+    private static void notifyLater(Runnable notification, int delay) {                                                                     //send a notification in delay seconds or at the server shutdown, whichever comes first
+        Runnable once = new Runnable() {
+            @Override
+            public void run() {
+                if (pendingNotifications.remove(this))                                                                                      //the shutdown may be sending it right now
+                    notification.run();
+                return;
+            }
+        };
+        pendingNotifications.add(once);
+        ServerMain.userTasksScheduledExecutor.schedule(once, delay, TimeUnit.SECONDS);
+        return;
+    }
+
+    public static int sendPendingNotifications() {                                                                                          //send all the pending notifications ahead of time, it's called by the server shutdown once the scheduler has been stopped
+        int sent = pendingNotifications.size();
+        pendingNotifications.forEach(Runnable::run);
+        return sent;
+    }
 
     public static PostOffice getPostOffice(int id) {                                                                                        //try to get a PostOffice instance by building id
         try (Session session = ServerMain.sessionFactory.openSession()) {
@@ -58,13 +79,8 @@ public class PostOffice extends Building {
     public void setP2(int p2) {this.p2 = p2;}
     public void setD1(int d1) {this.d1 = d1;}
 
-    @Override
-    protected String getParamXml(Params param) {return ParamUtils.getParamXml(this, param.toString());}
-
     public String ptXml() {                                                                                                                 //XML formatted post office data
-        StringJoiner sj = new StringJoiner("", "", "</PT>");
-        sj.add(postParams.stream().map(this::getParamXml).filter(StringUtils::isNotBlank).collect(Collectors.joining(" ", "<PT ", ">")));   //add XML post office params
-        return sj.toString();
+        return postXml.append(new StringBuilder(128).append("<PT"), this).append("></PT>").toString();                                      //add XML post office params
     }
 
     public void processCmd(User user, int get, int me, int p1, int p2, int d1, long a, int c, int s, String login, String wire, String parcel, String itm, int fast) {
@@ -99,7 +115,8 @@ public class PostOffice extends Building {
             user.addHistory(HistoryCodes.LOG_PAY_AND_BALANCE, "Coins[" + this.p1 + "]", String.format("%s,%s,%s,%s", getTxt(), getLocalX(), getLocalY(), getZ()), HistoryCodes.ULOG_FOR_WIRE, String.valueOf(user.getMoneyCop()));
             this.addHistory(HistoryCodes.LOG_POST_PAY_FOR_WIRE, user.getLogin(), String.valueOf(this.p1));                                  //Персонаж 'User' заплатил XX мнт. за отправку телеграммы
             user.sendMsg("<PT ok=\"1\"/>");
-            rcptUser.sendIMS(HistoryCodes.LOG_WIRE, user.getLogin(), wire);                                                                 //send a wire as an IMS to the recipient
+            String wireText = wire;
+            rcptUser.getMailbox().execute(() -> rcptUser.sendIMS(HistoryCodes.LOG_WIRE, user.getLogin(), wireText));                        //send a wire as an IMS to the recipient, the recipient is changed in its own mailbox
         }
 
         if (parcel != null && itm != null) {                                                                                                //user sends a parcel, recipient is in parcel argument
@@ -133,7 +150,7 @@ public class PostOffice extends Building {
             this.addHistory(HistoryCodes.LOG_POST_PAY_FOR_PARCEL, user.getLogin(), String.valueOf(parcelCost));                             //Персонаж 'User' заплатил XX мнт. за отправку посылки
 
             user.sendMsg("<PT ok=\"2\"/>");                                                                                                 //send ok to the Post office
-            user.getGameChannel().eventLoop().schedule(() -> rcptUser.sendIMS(HistoryCodes.LOG_PARCEL_ARRIVED, user.getLogin()), deliveryTime, TimeUnit.SECONDS);//send IMS notification to the recipient about the parcel in deliveryTime seconds
+            notifyLater(() -> rcptUser.getMailbox().execute(() -> rcptUser.sendIMS(HistoryCodes.LOG_PARCEL_ARRIVED, user.getLogin())), deliveryTime); //send IMS notification to the recipient about the parcel in deliveryTime seconds
         }
 
         if (me == 1) {                                                                                                                      //check if there is a parcel ready for delivery for the user